@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.aop;
+
+import lombok.val;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An audited call that calls another audited call, each of them setting the old and new
+ * values and one data entry: the previous holder (a new context and map per call in an
+ * {@link InheritableThreadLocal}) against the pooled frames of
+ * {@link AuditContextHolder}. It lives in the {@code aop} package to reach the
+ * package-private {@code create()}. Run it with the gc profiler to compare the
+ * allocation rate:
+ *
+ * <pre>
+ * java -jar audit-benchmarks/target/benchmarks.jar AuditContextHolderBenchmark -prof gc
+ * </pre>
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuditContextHolderBenchmark {
+
+    private final Object oldValue = "old";
+
+    private final Object newValue = "new";
+
+    @Benchmark
+    public Object inheritableNewContext() {
+        val outer = LegacyHolder.get();
+        try {
+            LegacyHolder.create();
+            LegacyHolder.get().set(oldValue, newValue);
+            val inner = LegacyHolder.get();
+            try {
+                LegacyHolder.create();
+                LegacyHolder.get().set(oldValue, newValue);
+                return LegacyHolder.get().newValue;
+            }
+            finally {
+                LegacyHolder.restore(inner);
+            }
+        }
+        finally {
+            LegacyHolder.restore(outer);
+        }
+    }
+
+    @Benchmark
+    public Object pooledFrames() {
+        val outer = AuditContextHolder.getContext();
+        try {
+            set(AuditContextHolder.create());
+            val inner = AuditContextHolder.getContext();
+            try {
+                set(AuditContextHolder.create());
+                return AuditContextHolder.getContext().getNewValue();
+            }
+            finally {
+                AuditContextHolder.restore(inner);
+            }
+        }
+        finally {
+            AuditContextHolder.restore(outer);
+        }
+    }
+
+    private void set(AuditContextHolder.Context context) {
+        context.setOldValue(oldValue);
+        context.setNewValue(newValue);
+        context.set("id", oldValue);
+    }
+
+    /**
+     * The holder as it was before the contexts were pooled.
+     */
+    static final class LegacyHolder {
+
+        private static final ThreadLocal<LegacyContext> context = new InheritableThreadLocal<>();
+
+        static void create() {
+            context.set(new LegacyContext(new HashMap<>()));
+        }
+
+        static LegacyContext get() {
+            return context.get();
+        }
+
+        static void restore(LegacyContext oldContext) {
+            context.remove();
+            if (oldContext != null) {
+                context.set(oldContext);
+            }
+        }
+
+    }
+
+    static final class LegacyContext {
+
+        private final Map<String, Object> data;
+
+        private Object oldValue;
+
+        private Object newValue;
+
+        LegacyContext(Map<String, Object> data) {
+            this.data = data;
+        }
+
+        void set(Object oldValue, Object newValue) {
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+            this.data.put("id", oldValue);
+        }
+
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.benchmark;
+
+import com.apzda.cloud.audit.ValueSanitizer;
+import com.apzda.cloud.audit.aop.AuditLog;
+import com.apzda.cloud.audit.aop.AuditLogAdvisor;
+import com.apzda.cloud.audit.autoconfig.AuditClientProperties;
+import com.apzda.cloud.audit.logging.AuditLogDispatcher;
+import com.apzda.cloud.audit.logging.AuditSampler;
+import com.apzda.cloud.audit.logging.Logger;
+import com.apzda.cloud.audit.logging.ValueDiffer;
+import com.apzda.cloud.audit.metrics.AuditClientMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.ObservationRegistry;
+import lombok.val;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of {@link AuditLogAdvisor} on an audited method: a literal message against
+ * a SpEL message, sent synchronously or through the dispatcher queue. {@code baseline}
+ * calls the same method without the advice. The audit logs end up in an
+ * {@link InMemoryAuditService}.
+ *
+ * <pre>
+ * java -jar audit-benchmarks/target/benchmarks.jar AuditLogAdvisorBenchmark
+ * </pre>
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuditLogAdvisorBenchmark {
+
+    private AuditLogDispatcher dispatcher;
+
+    private AuditedService target;
+
+    private AuditedService proxy;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        val auditService = new InMemoryAuditService();
+        val properties = new AuditClientProperties();
+        // keep the queue from filling up, the benchmark measures the caller thread
+        properties.getDispatcher().setQueueCapacity(1 << 20);
+        dispatcher = new AuditLogDispatcher(properties.getDispatcher(), ObservationRegistry.NOOP,
+                (logs) -> Logger.send(auditService, logs), (logs) -> Logger.send(auditService, logs),
+                AuditClientMetrics.NOOP);
+        dispatcher.afterPropertiesSet();
+        val sanitizers = (ObjectProvider<ValueSanitizer<?>>) (ObjectProvider<?>) new DefaultListableBeanFactory()
+            .getBeanProvider(ValueSanitizer.class);
+        val advisor = new AuditLogAdvisor(dispatcher, new ObjectMapper(), sanitizers, properties, ValueDiffer.FULL,
+                AuditClientMetrics.NOOP, AuditSampler.ALWAYS);
+        advisor.afterPropertiesSet();
+        target = new AuditedService();
+        val factory = new AspectJProxyFactory(target);
+        factory.setProxyTargetClass(true);
+        factory.addAspect(advisor);
+        proxy = factory.getProxy();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        dispatcher.destroy();
+    }
+
+    @Benchmark
+    public String baseline() {
+        return target.literalSync("1");
+    }
+
+    @Benchmark
+    public String literalSync() {
+        return proxy.literalSync("1");
+    }
+
+    @Benchmark
+    public String spelSync() {
+        return proxy.spelSync("1");
+    }
+
+    @Benchmark
+    public String literalAsync() {
+        return proxy.literalAsync("1");
+    }
+
+    @Benchmark
+    public String spelAsync() {
+        return proxy.spelAsync("1");
+    }
+
+    public static class AuditedService {
+
+        @AuditLog(activity = "bench", message = "order updated", async = false)
+        public String literalSync(String id) {
+            return id;
+        }
+
+        @AuditLog(activity = "bench", message = "#{'order ' + #id + ' updated to ' + #returnObj}", async = false)
+        public String spelSync(String id) {
+            return id;
+        }
+
+        @AuditLog(activity = "bench", message = "order updated")
+        public String literalAsync(String id) {
+            return id;
+        }
+
+        @AuditLog(activity = "bench", message = "#{'order ' + #id + ' updated to ' + #returnObj}")
+        public String spelAsync(String id) {
+            return id;
+        }
+
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.benchmark;
+
+import com.apzda.cloud.audit.config.AuditServerProperties;
+import com.apzda.cloud.audit.domain.entity.AuditLog;
+import com.apzda.cloud.audit.domain.repository.AuditLogJdbcRepository;
+import com.apzda.cloud.audit.domain.repository.AuditLogRepository;
+import com.apzda.cloud.audit.facade.AuditServiceImpl;
+import com.apzda.cloud.audit.ingest.AuditLogIngestor;
+import com.apzda.cloud.audit.proto.Arg;
+import com.apzda.cloud.audit.proto.Query;
+import com.apzda.cloud.audit.proto.QueryRes;
+import com.apzda.cloud.gsvc.ext.GsvcExt;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hubspot.jackson.datatype.protobuf.ProtobufModule;
+import lombok.val;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link AuditServiceImpl} over in-memory repositories: {@code log} (entity mapping and
+ * save) and {@code logs} (mapping a page of 20 stored entities, with their
+ * payloads, back to messages).
+ *
+ * <pre>
+ * java -jar audit-benchmarks/target/benchmarks.jar AuditServiceBenchmark
+ * </pre>
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuditServiceBenchmark {
+
+    private static final int PAGE_SIZE = 20;
+
+    private AuditServiceImpl auditService;
+
+    private com.apzda.cloud.audit.proto.AuditLog auditLog;
+
+    private Query query;
+
+    @Setup
+    public void setup() {
+        val objectMapper = new ObjectMapper().registerModule(new ProtobufModule());
+        val stored = new ArrayList<AuditLog>();
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            stored.add(AuditLog.builder()
+                .id((long) i)
+                .tenantId("0")
+                .userId("1")
+                .logTime(System.currentTimeMillis())
+                .activity("bench")
+                .level("info")
+                .ip("127.0.0.1")
+                .message("order {} paid")
+                .template(true)
+                .args("[{\"value\":\"1024\",\"index\":0}]")
+                .oldValue("{\"id\":1024,\"status\":\"NEW\"}")
+                .newValue("{\"id\":1024,\"status\":\"PAID\"}")
+                .build());
+        }
+        // the ingestor is disabled: the group commit is measured by the load test
+        val properties = new AuditServerProperties();
+        properties.getIngest().setEnabled(false);
+        val jdbcRepository = new InMemoryJdbcRepository();
+        val ingestor = new AuditLogIngestor(properties.getIngest(), jdbcRepository,
+                TransactionOperations.withoutTransaction());
+        auditService = new AuditServiceImpl(objectMapper, repository(stored), jdbcRepository, ingestor, properties);
+        auditLog = com.apzda.cloud.audit.proto.AuditLog.newBuilder()
+            .setTimestamp(System.currentTimeMillis())
+            .setUserid("1")
+            .setActivity("bench")
+            .setIp("127.0.0.1")
+            .setMessage("order {} paid")
+            .setTemplate(true)
+            .addArg(Arg.newBuilder().setIndex(0).setValue("1024"))
+            .setOldJsonValue("{\"id\":1024,\"status\":\"NEW\"}")
+            .setNewJsonValue("{\"id\":1024,\"status\":\"PAID\"}")
+            .build();
+        query = Query.newBuilder()
+            .setActivity("bench")
+            .setPager(GsvcExt.Pager.newBuilder().setPageNumber(0).setPageSize(PAGE_SIZE))
+            .setWithPayload(true)
+            .build();
+    }
+
+    @Benchmark
+    public GsvcExt.CommonRes log() {
+        return auditService.log(auditLog);
+    }
+
+    @Benchmark
+    public QueryRes logs() {
+        return auditService.logs(query);
+    }
+
+    /**
+     * A repository whose {@code save} assigns an id and whose {@code findAll} returns
+     * the stored page, the query specification is not evaluated.
+     */
+    private static AuditLogRepository repository(List<AuditLog> stored) {
+        val ids = new AtomicLong();
+        return (AuditLogRepository) Proxy.newProxyInstance(AuditServiceBenchmark.class.getClassLoader(),
+                new Class<?>[] { AuditLogRepository.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "save" -> {
+                            val entity = (AuditLog) args[0];
+                            entity.setId(ids.incrementAndGet());
+                            return entity;
+                        }
+                        case "findAll" -> {
+                            if (args != null && args.length == 2 && args[1] instanceof Pageable pageable) {
+                                return new PageImpl<>(stored, pageable, 1000);
+                            }
+                            return stored;
+                        }
+                        case "hashCode" -> {
+                            return System.identityHashCode(proxy);
+                        }
+                        case "equals" -> {
+                            return proxy == args[0];
+                        }
+                        case "toString" -> {
+                            return "InMemoryAuditLogRepository";
+                        }
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static final class InMemoryJdbcRepository extends AuditLogJdbcRepository {
+
+        private final AtomicLong ids = new AtomicLong();
+
+        InMemoryJdbcRepository() {
+            super(null, null);
+        }
+
+        @Override
+        public void saveAll(List<AuditLog> logs) {
+            for (AuditLog log : logs) {
+                log.setId(ids.incrementAndGet());
+            }
+        }
+
+    }
+
+}
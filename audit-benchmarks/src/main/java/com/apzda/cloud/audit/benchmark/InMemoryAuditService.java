@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.benchmark;
+
+import com.apzda.cloud.audit.proto.AuditLog;
+import com.apzda.cloud.audit.proto.AuditLogBatch;
+import com.apzda.cloud.audit.proto.AuditLogBatchRes;
+import com.apzda.cloud.audit.proto.AuditService;
+import com.apzda.cloud.audit.proto.BatchItemRes;
+import com.apzda.cloud.audit.proto.LogReq;
+import com.apzda.cloud.audit.proto.LogRes;
+import com.apzda.cloud.audit.proto.Query;
+import com.apzda.cloud.audit.proto.QueryRes;
+import com.apzda.cloud.gsvc.ext.GsvcExt;
+import lombok.val;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link AuditService} that only counts the audit logs it receives, so the
+ * benchmarks measure the client and not the transport.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+public class InMemoryAuditService implements AuditService {
+
+    private static final GsvcExt.CommonRes OK = GsvcExt.CommonRes.newBuilder().setErrCode(0).build();
+
+    private final AtomicLong received = new AtomicLong();
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    @Override
+    public GsvcExt.CommonRes log(AuditLog request) {
+        received.incrementAndGet();
+        return OK;
+    }
+
+    @Override
+    public AuditLogBatchRes logBatch(AuditLogBatch request) {
+        val builder = AuditLogBatchRes.newBuilder().setErrCode(0);
+        for (int i = 0; i < request.getLogCount(); i++) {
+            builder.addItem(BatchItemRes.newBuilder().setIndex(i).setErrCode(0).setId(received.incrementAndGet()));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public QueryRes logs(Query request) {
+        return QueryRes.newBuilder().setErrCode(0).build();
+    }
+
+    @Override
+    public QueryRes myLogs(Query request) {
+        return logs(request);
+    }
+
+    @Override
+    public LogRes getLog(LogReq request) {
+        return LogRes.newBuilder().setErrCode(404).setErrMsg("Audit log not found").build();
+    }
+
+}
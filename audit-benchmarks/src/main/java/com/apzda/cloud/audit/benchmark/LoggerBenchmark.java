@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.benchmark;
+
+import com.apzda.cloud.audit.autoconfig.AuditClientProperties;
+import com.apzda.cloud.audit.logging.AuditLogDispatcher;
+import com.apzda.cloud.audit.logging.Logger;
+import com.apzda.cloud.audit.logging.ValueDiffer;
+import com.apzda.cloud.audit.metrics.AuditClientMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.ObservationRegistry;
+import lombok.val;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Logger}: constructing it (it resolves the current user, tenant and ip), and
+ * constructing it then logging an event with old and new values through the
+ * dispatcher into an {@link InMemoryAuditService}.
+ *
+ * <pre>
+ * java -jar audit-benchmarks/target/benchmarks.jar LoggerBenchmark
+ * </pre>
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggerBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private InMemoryAuditService auditService;
+
+    private AuditLogDispatcher dispatcher;
+
+    private Map<String, Object> oldValue;
+
+    private Map<String, Object> newValue;
+
+    @Setup
+    public void setup() throws Exception {
+        auditService = new InMemoryAuditService();
+        val config = new AuditClientProperties.Dispatcher();
+        config.setQueueCapacity(1 << 20);
+        dispatcher = new AuditLogDispatcher(config, ObservationRegistry.NOOP,
+                (logs) -> Logger.send(auditService, logs), (logs) -> Logger.send(auditService, logs),
+                AuditClientMetrics.NOOP);
+        dispatcher.afterPropertiesSet();
+        oldValue = Map.of("id", 1, "status", "NEW", "items", List.of("a", "b"));
+        newValue = Map.of("id", 1, "status", "PAID", "items", List.of("a", "b"));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        dispatcher.destroy();
+    }
+
+    @Benchmark
+    public Logger construct() {
+        return new Logger(auditService, objectMapper, "bench", dispatcher, ValueDiffer.FULL);
+    }
+
+    @Benchmark
+    public void constructAndLog() {
+        new Logger(auditService, objectMapper, "bench", dispatcher, ValueDiffer.FULL).message("order paid")
+            .replace(oldValue, newValue)
+            .log();
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.benchmark;
+
+import com.apzda.cloud.audit.ValueSanitizer;
+import com.apzda.cloud.audit.aop.ValueSanitizers;
+import com.apzda.cloud.gsvc.utils.ResponseUtils;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import jakarta.annotation.Nonnull;
+import lombok.val;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sanitizing a value with 12 registered sanitizers: resolving the ordered sanitizers
+ * from the bean factory and asking each of them on every call, against the
+ * {@link ValueSanitizers} chain cached by type, and the cached chain followed by the JSON
+ * serialization done by {@code AuditContextHolder.Context.toJsonString}.
+ *
+ * <pre>
+ * java -jar audit-benchmarks/target/benchmarks.jar ValueSanitizerBenchmark
+ * </pre>
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValueSanitizerBenchmark {
+
+    private ObjectProvider<ValueSanitizer<?>> provider;
+
+    private ValueSanitizers sanitizers;
+
+    private Order order;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        val beanFactory = new DefaultListableBeanFactory();
+        val types = new Class<?>[] { Map.class, List.class, Set.class, Date.class, Optional.class,
+                StringBuilder.class, UUID.class, BigDecimal.class, URI.class, int[].class, Customer.class,
+                Order.class };
+        var i = 0;
+        for (Class<?> type : types) {
+            beanFactory.registerSingleton("sanitizer" + i, new TypedSanitizer<>(type, i));
+            i++;
+        }
+        provider = (ObjectProvider<ValueSanitizer<?>>) (ObjectProvider<?>) beanFactory
+            .getBeanProvider(ValueSanitizer.class);
+        sanitizers = ValueSanitizers.of(provider.orderedStream().toList());
+        order = new Order("13800138000", 2);
+    }
+
+    @Benchmark
+    public Object resolveEveryCall() {
+        Object value = order;
+        for (ValueSanitizer<?> valueSanitizer : provider.orderedStream().toList()) {
+            if (valueSanitizer.support(value)) {
+                value = valueSanitizer.sanitize(value);
+            }
+        }
+        return value;
+    }
+
+    @Benchmark
+    public Object cachedByType() {
+        return sanitizers.sanitize(order);
+    }
+
+    @Benchmark
+    public String cachedByTypeToJson() throws JsonProcessingException {
+        return ResponseUtils.OBJECT_MAPPER.writeValueAsString(sanitizers.sanitize(order));
+    }
+
+    public record Order(String phone, int items) {
+    }
+
+    public record Customer(String name) {
+    }
+
+    static class TypedSanitizer<T> implements ValueSanitizer<T> {
+
+        private final Class<T> type;
+
+        private final int order;
+
+        TypedSanitizer(Class<T> type, int order) {
+            this.type = type;
+            this.order = order;
+        }
+
+        @Nonnull
+        @Override
+        public T doSanitize(@Nonnull T value) {
+            return value;
+        }
+
+        @Override
+        public boolean support(Object value) {
+            return type.isInstance(value);
+        }
+
+        @Nonnull
+        @Override
+        public Class<?>[] supportedTypes() {
+            return new Class<?>[] { type };
+        }
+
+        @Override
+        public int getOrder() {
+            return order;
+        }
+
+    }
+
+}
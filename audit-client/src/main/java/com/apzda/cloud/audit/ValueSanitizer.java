@@ -18,6 +18,7 @@ package com.apzda.cloud.audit;
 
 import jakarta.annotation.Nonnull;
 import org.springframework.core.Ordered;
+import org.springframework.core.ResolvableType;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -37,6 +38,21 @@ public interface ValueSanitizer<T> extends Ordered {
 
     boolean support(Object value);
 
+    /**
+     * The types of values this sanitizer may be applied to, {@link #support(Object)} is
+     * called only for values of these types. An empty array means any value. By default
+     * it is the resolved type argument {@code T}.
+     * @return the supported types.
+     */
+    @Nonnull
+    default Class<?>[] supportedTypes() {
+        final Class<?> type = ResolvableType.forClass(ValueSanitizer.class, getClass()).resolveGeneric(0);
+        if (type == null || type == Object.class) {
+            return new Class<?>[0];
+        }
+        return new Class<?>[] { type };
+    }
+
     @Override
     default int getOrder() {
         return Ordered.HIGHEST_PRECEDENCE;
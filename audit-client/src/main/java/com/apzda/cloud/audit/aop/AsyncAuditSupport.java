@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.aop;
+
+import lombok.val;
+import org.springframework.util.ClassUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+
+/**
+ * Attaches the audit step to the completion of asynchronous return values:
+ * {@link CompletionStage} and, when Reactor is on the classpath, {@code Mono} and
+ * {@code Flux}.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+abstract class AsyncAuditSupport {
+
+    private static final boolean REACTOR_PRESENT = ClassUtils.isPresent("reactor.core.publisher.Mono",
+            AsyncAuditSupport.class.getClassLoader());
+
+    static boolean isAsync(Object returnObj) {
+        return returnObj instanceof CompletionStage<?> || (REACTOR_PRESENT && ReactorSupport.isReactive(returnObj));
+    }
+
+    /**
+     * @param returnObj the value returned by the audited method.
+     * @param callback called with the result or the error on completion, once per
+     * subscription for {@code Mono} and {@code Flux}.
+     * @return the value the audited method should return.
+     */
+    static Object whenComplete(Object returnObj, BiConsumer<Object, Throwable> callback) {
+        if (returnObj instanceof CompletionStage<?> stage) {
+            // the original stage is returned so cancelling it still works
+            stage.whenComplete((result, error) -> callback.accept(result, unwrap(error)));
+            return returnObj;
+        }
+        return ReactorSupport.whenComplete(returnObj, callback);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        if ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+
+    private static final class ReactorSupport {
+
+        static boolean isReactive(Object returnObj) {
+            return returnObj instanceof Mono<?> || returnObj instanceof Flux<?>;
+        }
+
+        /**
+         * The callback runs in {@code doFinally}, so a cancelled subscription is audited
+         * too, with a {@link CancellationException}; a {@code Mono} cancelled after its
+         * value (as {@code toFuture()} does) succeeded. The audit context is the one
+         * captured when the method returned.
+         */
+        static Object whenComplete(Object returnObj, BiConsumer<Object, Throwable> callback) {
+            if (returnObj instanceof Mono<?> mono) {
+                return Mono.defer(() -> {
+                    val outcome = new Outcome(callback);
+                    return mono.doOnNext(outcome::onNext).doOnError(outcome::onError).doFinally(outcome::onFinally);
+                });
+            }
+            val flux = (Flux<?>) returnObj;
+            return Flux.defer(() -> {
+                val outcome = new Outcome(callback);
+                return flux.doOnError(outcome::onError).doFinally(outcome::onFinally);
+            });
+        }
+
+        /**
+         * The outcome of one subscription.
+         */
+        private static final class Outcome {
+
+            private final BiConsumer<Object, Throwable> callback;
+
+            private boolean hasValue;
+
+            private Object value;
+
+            private Throwable error;
+
+            Outcome(BiConsumer<Object, Throwable> callback) {
+                this.callback = callback;
+            }
+
+            void onNext(Object value) {
+                this.hasValue = true;
+                this.value = value;
+            }
+
+            void onError(Throwable error) {
+                this.error = error;
+            }
+
+            void onFinally(SignalType signal) {
+                if (signal == SignalType.ON_ERROR) {
+                    callback.accept(null, error);
+                }
+                else if (signal == SignalType.CANCEL && !hasValue) {
+                    callback.accept(null, new CancellationException("Cancelled by the subscriber"));
+                }
+                else {
+                    callback.accept(value, null);
+                }
+            }
+
+        }
+
+    }
+
+}
@@ -20,15 +20,23 @@ import com.apzda.cloud.audit.ValueSanitizer;
 import com.apzda.cloud.gsvc.utils.ResponseUtils;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import lombok.Getter;
-import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import lombok.val;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.ObjectProvider;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
+ * Holds the audit context of the current call. The contexts are pooled per thread and
+ * kept in a stack of frames: {@link #create()} reuses the frame above the current one
+ * and {@link #restore(Context)} resets the frames above the given one, so nested audited
+ * calls do not allocate. The holder is not inheritable, use {@link #wrap(Runnable)} or
+ * {@link #callWith(Context, Supplier)} to hand the context over to another thread.
+ *
  * @author fengz (windywany@gmail.com)
  * @version 1.0.0
  * @since 1.0.0
@@ -36,54 +44,220 @@ import java.util.Map;
 @Slf4j
 public abstract class AuditContextHolder {
 
-    private static final ThreadLocal<Context> context = new InheritableThreadLocal<>();
+    private static final ThreadLocal<Frames> frames = ThreadLocal.withInitial(Frames::new);
+
+    private static ObjectProvider<ValueSanitizer<?>> valueSanitizerProvider;
 
-    static ObjectProvider<ValueSanitizer<?>> valueSanitizerProvider;
+    private static volatile ValueSanitizers valueSanitizers;
 
-    static void create() {
-        context.set(new Context(null, null, new HashMap<>()));
+    static Context create() {
+        return frames.get().push();
     }
 
     public static void setContext(Context context) {
-        AuditContextHolder.context.set(context);
+        frames.get().current = context;
     }
 
     public static Context getContext() {
-        return context.get();
+        return frames.get().current;
     }
 
     public static void clear() {
-        context.remove();
+        frames.remove();
     }
 
+    /**
+     * Make {@code oldContext} the current context again, the pooled contexts created
+     * after it are reset.
+     */
     public static void restore(Context oldContext) {
-        context.remove();
-        if (oldContext != null) {
-            context.set(oldContext);
+        frames.get().restore(oldContext);
+    }
+
+    /**
+     * Run the task with a copy of the current context, it can be run on another thread.
+     */
+    public static Runnable wrap(Runnable task) {
+        val context = detach();
+        return () -> callWith(context, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run the task with a copy of the current context, it can be run on another thread.
+     */
+    public static <T> Supplier<T> wrap(Supplier<T> task) {
+        val context = detach();
+        return () -> callWith(context, task);
+    }
+
+    /**
+     * Run the task with the given context as the current one, the previous context is
+     * restored afterwards.
+     */
+    public static <T> T callWith(Context context, Supplier<T> task) {
+        val current = frames.get();
+        val previous = current.current;
+        current.current = context;
+        try {
+            return task.get();
+        }
+        finally {
+            current.restore(previous);
+        }
+    }
+
+    /**
+     * @return a copy of the current context that is not reused by this thread, or
+     * {@code null} if there is no current context.
+     */
+    public static Context detach() {
+        val context = getContext();
+        return context == null ? null : context.copy();
+    }
+
+    static void setValueSanitizerProvider(ObjectProvider<ValueSanitizer<?>> valueSanitizerProvider) {
+        AuditContextHolder.valueSanitizerProvider = valueSanitizerProvider;
+        AuditContextHolder.valueSanitizers = null;
+    }
+
+    /**
+     * Resolve the ordered sanitizers again, called when the application context is
+     * refreshed.
+     */
+    static void refreshValueSanitizers() {
+        val provider = valueSanitizerProvider;
+        valueSanitizers = provider == null ? ValueSanitizers.EMPTY
+                : ValueSanitizers.of(provider.orderedStream().toList());
+    }
+
+    static ValueSanitizers getValueSanitizers() {
+        if (valueSanitizers == null) {
+            refreshValueSanitizers();
         }
+        return valueSanitizers;
+    }
+
+    private static final class Frames {
+
+        private Context[] pool = new Context[4];
+
+        private int depth;
+
+        private Context current;
+
+        Context push() {
+            if (depth == pool.length) {
+                pool = Arrays.copyOf(pool, depth * 2);
+            }
+            var context = pool[depth];
+            if (context == null) {
+                context = new Context(this, depth);
+                pool[depth] = context;
+            }
+            context.open(current);
+            depth++;
+            current = context;
+            return context;
+        }
+
+        void restore(Context context) {
+            // pop the frames pushed on top of a context that is not pooled by this thread
+            while (current != context && current != null && current.frames == this) {
+                val popped = current;
+                current = popped.parent;
+                release(popped.slot);
+            }
+            if (context == null) {
+                release(0);
+            }
+            else if (context.frames == this) {
+                release(context.slot + 1);
+            }
+            current = context;
+        }
+
+        private void release(int from) {
+            for (int i = from; i < depth; i++) {
+                pool[i].release();
+            }
+            depth = Math.min(depth, from);
+        }
+
     }
 
-    @Getter
     public static class Context {
 
-        @Setter
+        private final Frames frames;
+
+        private final int slot;
+
+        private final Map<String, Object> data = new HashMap<>();
+
+        private Context parent;
+
+        @Getter
         private Object newValue;
 
-        @Setter
+        @Getter
         private Object oldValue;
 
-        @Setter
+        @Getter
         private String username;
 
-        @Setter
+        @Getter
         private String tenantId;
 
-        private final Map<String, Object> data;
+        private Context(Frames frames, int slot) {
+            this.frames = frames;
+            this.slot = slot;
+        }
 
-        Context(Object newValue, Object oldValue, Map<String, Object> data) {
+        private void open(Context parent) {
+            this.parent = parent;
+        }
+
+        private void release() {
+            parent = null;
+            newValue = null;
+            oldValue = null;
+            username = null;
+            tenantId = null;
+            if (!data.isEmpty()) {
+                data.clear();
+            }
+        }
+
+        private Context copy() {
+            val copy = new Context(null, -1);
+            copy.newValue = newValue;
+            copy.oldValue = oldValue;
+            copy.username = username;
+            copy.tenantId = tenantId;
+            copy.data.putAll(data);
+            return copy;
+        }
+
+        public void setNewValue(Object newValue) {
             this.newValue = newValue;
+        }
+
+        public void setOldValue(Object oldValue) {
             this.oldValue = oldValue;
-            this.data = data;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public void setTenantId(String tenantId) {
+            this.tenantId = tenantId;
+        }
+
+        public Map<String, Object> getData() {
+            return data;
         }
 
         public void set(String name, Object value) {
@@ -110,11 +284,7 @@ public abstract class AuditContextHolder {
                     return (String) value;
                 }
                 else {
-                    for (ValueSanitizer<?> valueSanitizer : valueSanitizerProvider.orderedStream().toList()) {
-                        if (valueSanitizer.support(value)) {
-                            value = valueSanitizer.sanitize(value);
-                        }
-                    }
+                    value = getValueSanitizers().sanitize(value);
                     return ResponseUtils.OBJECT_MAPPER.writeValueAsString(value);
                 }
             }
@@ -124,6 +294,16 @@ public abstract class AuditContextHolder {
             return "";
         }
 
+        /**
+         * Apply the registered {@link ValueSanitizer}s to a value.
+         */
+        public static Object sanitize(Object value) {
+            if (value == null) {
+                return null;
+            }
+            return getValueSanitizers().sanitize(value);
+        }
+
     }
 
 }
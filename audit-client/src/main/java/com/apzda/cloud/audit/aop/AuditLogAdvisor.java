@@ -17,13 +17,15 @@
 package com.apzda.cloud.audit.aop;
 
 import com.apzda.cloud.audit.ValueSanitizer;
-import com.apzda.cloud.audit.proto.AuditService;
+import com.apzda.cloud.audit.autoconfig.AuditClientProperties;
+import com.apzda.cloud.audit.logging.AuditLogDispatcher;
+import com.apzda.cloud.audit.logging.AuditSampler;
+import com.apzda.cloud.audit.logging.ValueDiffer;
+import com.apzda.cloud.audit.metrics.AuditClientMetrics;
 import com.apzda.cloud.gsvc.context.CurrentUserProvider;
 import com.apzda.cloud.gsvc.context.TenantManager;
 import com.apzda.cloud.gsvc.core.GsvcContextHolder;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.micrometer.observation.Observation;
-import io.micrometer.observation.ObservationRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
@@ -32,18 +34,33 @@ import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.ListableBeanFactory;
 import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.AnnotatedElementUtils;
 import org.springframework.core.annotation.Order;
-import org.springframework.expression.ExpressionParser;
 import org.springframework.expression.ParserContext;
 import org.springframework.expression.common.TemplateParserContext;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
 
-import java.lang.reflect.Parameter;
-import java.util.concurrent.CompletableFuture;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -55,111 +72,108 @@ import java.util.concurrent.CompletableFuture;
 @Slf4j
 @Order
 @RequiredArgsConstructor
-public class AuditLogAdvisor implements InitializingBean {
+public class AuditLogAdvisor implements InitializingBean, SmartInitializingSingleton, BeanFactoryAware {
 
-    private final ExpressionParser expressionParser = new SpelExpressionParser();
+    private final SpelExpressionParser expressionParser = new SpelExpressionParser(
+            new SpelParserConfiguration(SpelCompilerMode.MIXED, AuditLogAdvisor.class.getClassLoader()));
 
     private final ParserContext parserContext = new TemplateParserContext();
 
-    private final AuditService auditService;
+    private final Map<Method, AuditMethodDescriptor> descriptors = new ConcurrentHashMap<>(64);
 
-    private final ObjectMapper objectMapper;
+    private final AuditLogDispatcher dispatcher;
 
-    private final ObservationRegistry observationRegistry;
+    private final ObjectMapper objectMapper;
 
     private final ObjectProvider<ValueSanitizer<?>> valueSanitizerProvider;
 
+    private final AuditClientProperties properties;
+
+    private final ValueDiffer valueDiffer;
+
+    private final AuditClientMetrics metrics;
+
+    private final AuditSampler sampler;
+
+    private BeanFactory beanFactory;
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
-        AuditContextHolder.valueSanitizerProvider = valueSanitizerProvider;
+        AuditContextHolder.setValueSanitizerProvider(valueSanitizerProvider);
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void onContextRefreshed() {
+        AuditContextHolder.refreshValueSanitizers();
+    }
+
+    /**
+     * Build the descriptors of all audited bean methods up front when
+     * {@code apzda.audit.client.eager-init} is enabled.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!properties.isEagerInit() || !(beanFactory instanceof ListableBeanFactory listableBeanFactory)) {
+            return;
+        }
+        for (String name : listableBeanFactory.getBeanDefinitionNames()) {
+            val type = listableBeanFactory.getType(name, false);
+            if (type == null) {
+                continue;
+            }
+            ReflectionUtils.doWithMethods(ClassUtils.getUserClass(type), (method) -> {
+                val ann = AnnotatedElementUtils.findMergedAnnotation(method, AuditLog.class);
+                if (ann != null) {
+                    descriptors.computeIfAbsent(method, (key) -> AuditMethodDescriptor.of(key, ann,
+                            expressionParser, parserContext));
+                }
+            }, ReflectionUtils.USER_DECLARED_METHODS);
+        }
+        log.debug("{} audited methods resolved", descriptors.size());
     }
 
     @Around("@annotation(com.apzda.cloud.audit.aop.AuditLog)")
     public Object interceptor(ProceedingJoinPoint pjp) throws Throwable {
+        val start = System.nanoTime();
+        var proceedNanos = 0L;
         val args = pjp.getArgs();
-        val signature = (MethodSignature) pjp.getSignature();
-        val method = signature.getMethod();
-        val ann = method.getAnnotation(AuditLog.class);
-        val activity = StringUtils.defaultIfBlank(ann.value(), ann.activity());
+        val descriptor = descriptor(pjp);
+        val activity = descriptor.getActivity();
         val oldContext = AuditContextHolder.getContext();
         try {
             if (StringUtils.isBlank(activity)) {
                 throw new IllegalArgumentException("activity is blank");
             }
+            // a real context even when the event may not be sampled: errors are always
+            // logged, with what the method set on it
             AuditContextHolder.create();
             Object returnObj = null;
             Exception lastEx = null;
+            val proceedStart = System.nanoTime();
             try {
                 returnObj = pjp.proceed(args);
             }
             catch (Exception e) {
                 lastEx = e;
             }
-            val ctx = AuditContextHolder.getContext();
-            val currentUser = CurrentUserProvider.getCurrentUser();
-            val userId = StringUtils.defaultIfBlank(ctx.getUsername(),
-                    StringUtils.defaultIfBlank(currentUser.getUid(), "0"));
-            val tenantId = StringUtils.defaultIfBlank(ctx.getTenantId(), TenantManager.tenantId("0"));
-            val ip = GsvcContextHolder.getRemoteIp();
-            val device = currentUser.getDevice();
-            val builder = com.apzda.cloud.audit.proto.AuditLog.newBuilder();
-
-            builder.setTimestamp(System.currentTimeMillis());
-            builder.setUserid(userId);
-            builder.setActivity(activity);
-            builder.setTenantId(tenantId);
-            builder.setIp(ip);
-            if (device != null) {
-                builder.setDevice(device);
-            }
-            if (lastEx == null) {
-                builder.setLevel(StringUtils.defaultIfBlank(ann.level(), "info"));
-            }
-            else {
-                builder.setLevel("error");
-            }
-            val runAs = currentUser.getRunAs();
-            if (runAs != null) {
-                builder.setRunas(runAs);
-            }
-            val context = new StandardEvaluationContext(pjp.getTarget());
-            context.setVariable("returnObj", returnObj);
-            context.setVariable("throwExp", transform(lastEx));
-            context.setVariable("isThrow", lastEx != null);
-            context.setVariable("newValue", ctx.getNewValue());
-            context.setVariable("oldValue", ctx.getOldValue());
-            context.setVariable("cData", ctx.getData());
-            if (ctx.getNewValue() != null) {
-                builder.setNewJsonValue(ctx.getNewValueAsString());
-            }
-            if (ctx.getOldValue() != null) {
-                builder.setOldJsonValue(ctx.getOldValueAsString());
+            finally {
+                proceedNanos = System.nanoTime() - proceedStart;
             }
-            val parameters = method.getParameters();
-            var i = 0;
-            for (Parameter parameter : parameters) {
-                val name = parameter.getName();
-                context.setVariable(name, args[i++]);
-            }
-            if (ann.async()) {
-                val gsvcContext = GsvcContextHolder.getContext();
-                val throwObj = lastEx;
-                CompletableFuture.runAsync(() -> {
-                    try {
-                        gsvcContext.restore();
-                        val observation = Observation.createNotStarted("async", this.observationRegistry);
-                        observation.observe(() -> {
-                            audit(ann, context, builder, throwObj);
-                        });
-                    }
-                    finally {
-                        GsvcContextHolder.clear();
-                    }
-                });
+            val ctx = AuditContextHolder.getContext();
+            if (lastEx == null && AsyncAuditSupport.isAsync(returnObj)) {
+                // the pooled context is reset when this call returns
+                val detached = AuditContextHolder.detach();
+                return AsyncAuditSupport.whenComplete(returnObj, onCompletion(pjp, descriptor, args, detached));
             }
-            else {
-                audit(ann, context, builder, lastEx);
+            if (lastEx == null && !sampler.sample(activity, descriptor.getLevel())) {
+                return returnObj;
             }
+            audit(pjp, descriptor, args, ctx, returnObj, lastEx);
             if (lastEx != null) {
                 throw lastEx;
             }
@@ -167,36 +181,137 @@ public class AuditLogAdvisor implements InitializingBean {
         }
         finally {
             AuditContextHolder.restore(oldContext);
+            metrics.advice(System.nanoTime() - start - proceedNanos);
+        }
+    }
+
+    /**
+     * The audit step of a method returning a {@code CompletionStage}, {@code Mono} or
+     * {@code Flux}, run when it completes. The audit and gsvc contexts of the call are
+     * installed when it completes on another thread.
+     */
+    private BiConsumer<Object, Throwable> onCompletion(ProceedingJoinPoint pjp, AuditMethodDescriptor descriptor,
+            Object[] args, AuditContextHolder.Context ctx) {
+        val caller = Thread.currentThread();
+        val gsvcContext = GsvcContextHolder.getContext();
+        return (result, error) -> {
+            if (error == null && !sampler.sample(descriptor.getActivity(), descriptor.getLevel())) {
+                return;
+            }
+            val foreign = Thread.currentThread() != caller;
+            val previous = AuditContextHolder.getContext();
+            try {
+                if (foreign) {
+                    gsvcContext.restore();
+                }
+                AuditContextHolder.setContext(ctx);
+                audit(pjp, descriptor, args, ctx, result, error);
+            }
+            catch (Exception e) {
+                log.warn("Cannot audit {}: {}", descriptor.getActivity(), e.getMessage());
+            }
+            finally {
+                AuditContextHolder.restore(previous);
+                if (foreign) {
+                    GsvcContextHolder.clear();
+                }
+            }
+        };
+    }
+
+    private void audit(ProceedingJoinPoint pjp, AuditMethodDescriptor descriptor, Object[] args,
+            AuditContextHolder.Context ctx, Object returnObj, Throwable lastEx) {
+        val activity = descriptor.getActivity();
+        val currentUser = CurrentUserProvider.getCurrentUser();
+        val userId = StringUtils.defaultIfBlank(ctx.getUsername(),
+                StringUtils.defaultIfBlank(currentUser.getUid(), "0"));
+        val tenantId = StringUtils.defaultIfBlank(ctx.getTenantId(), TenantManager.tenantId("0"));
+        val ip = GsvcContextHolder.getRemoteIp();
+        val device = currentUser.getDevice();
+        val builder = com.apzda.cloud.audit.proto.AuditLog.newBuilder();
+
+        builder.setTimestamp(System.currentTimeMillis());
+        builder.setUserid(userId);
+        builder.setActivity(activity);
+        builder.setTenantId(tenantId);
+        builder.setIp(ip);
+        if (device != null) {
+            builder.setDevice(device);
+        }
+        if (lastEx == null) {
+            builder.setLevel(descriptor.getLevel());
+        }
+        else {
+            builder.setLevel("error");
+        }
+        val runAs = currentUser.getRunAs();
+        if (runAs != null) {
+            builder.setRunas(runAs);
+        }
+        val context = new StandardEvaluationContext(pjp.getTarget());
+        context.setVariable("returnObj", returnObj);
+        context.setVariable("throwExp", transform(lastEx));
+        context.setVariable("isThrow", lastEx != null);
+        context.setVariable("newValue", ctx.getNewValue());
+        context.setVariable("oldValue", ctx.getOldValue());
+        valueDiffer.replace(builder, ctx.getOldValue(), ctx.getNewValue());
+        val parameterNames = descriptor.getParameterNames();
+        for (int i = 0; i < parameterNames.length; i++) {
+            context.setVariable(parameterNames[i], args[i]);
+        }
+        if (descriptor.isAsync()) {
+            // the data of a pooled context is cleared before the event is built
+            context.setVariable("cData", ctx.getData().isEmpty() ? Map.of() : new HashMap<>(ctx.getData()));
+            val caller = Thread.currentThread();
+            val gsvcContext = GsvcContextHolder.getContext();
+            dispatcher.dispatch(activity, builder.getLevel(), () -> {
+                if (Thread.currentThread() == caller) {
+                    // caller runs: the context of the caller is still live
+                    return build(descriptor, context, builder, lastEx);
+                }
+                try {
+                    gsvcContext.restore();
+                    return build(descriptor, context, builder, lastEx);
+                }
+                finally {
+                    GsvcContextHolder.clear();
+                }
+            });
+        }
+        else {
+            context.setVariable("cData", ctx.getData());
+            val auditLog = build(descriptor, context, builder, lastEx);
+            if (auditLog != null) {
+                dispatcher.send(auditLog);
+            }
         }
     }
 
-    private void audit(AuditLog ann, StandardEvaluationContext context,
-            com.apzda.cloud.audit.proto.AuditLog.Builder builder, Exception lastEx) {
+    private com.apzda.cloud.audit.proto.AuditLog build(AuditMethodDescriptor descriptor,
+            StandardEvaluationContext context, com.apzda.cloud.audit.proto.AuditLog.Builder builder,
+            Throwable lastEx) {
         try {
-            var template = ann.template();
-            var message = ann.message();
+            var template = descriptor.getTemplate();
+            var message = descriptor.getMessage();
+            var expression = descriptor.getMessageExpression();
             if (lastEx != null) {
-                val error = ann.error();
-                if (StringUtils.isBlank(error)) {
-                    val errTpl = ann.errorTpl();
-                    if (StringUtils.isBlank(errTpl)) {
-                        message = lastEx.getMessage();
-                    }
-                    else {
-                        template = errTpl;
-                    }
+                if (descriptor.hasError()) {
+                    message = descriptor.getError();
+                    expression = descriptor.getErrorExpression();
+                }
+                else if (descriptor.hasErrorTpl()) {
+                    template = descriptor.getErrorTpl();
                 }
                 else {
-                    message = error;
+                    message = lastEx.getMessage();
+                    expression = null;
                 }
             }
 
             if (StringUtils.isNotBlank(message)) {
-                val evaluate = message.startsWith("#{") && message.endsWith("}");
-                if (evaluate) {
+                if (expression != null) {
                     try {
-                        val expression = expressionParser.parseExpression(message, parserContext);
-                        val msg = expression.getValue(context, String.class);
+                        val msg = expression.getValue(context);
                         builder.setMessage(msg);
                     }
                     catch (Exception e) {
@@ -211,17 +326,18 @@ public class AuditLogAdvisor implements InitializingBean {
             else if (StringUtils.isNotBlank(template)) {
                 builder.setTemplate(true);
                 builder.setMessage(template);
-                val arg = ann.args();
-                var idx = 0;
+                val arg = descriptor.getArgs();
+                val argExpressions = descriptor.getArgExpressions();
                 var argVal = "";
-                for (String value : arg) {
-                    if (value.startsWith("#")) {
+                for (int idx = 0; idx < arg.length; idx++) {
+                    val value = arg[idx];
+                    val argExpression = argExpressions[idx];
+                    if (argExpression != null && argExpression.isValid()) {
                         try {
-                            val expression = expressionParser.parseExpression(value);
-                            argVal = expression.getValue(context, String.class);
+                            argVal = argExpression.getValue(context);
                         }
                         catch (Exception e) {
-                            log.warn("Cannot parse arg: {}", value);
+                            log.warn("Cannot evaluate arg: {} - {}", value, e.getMessage());
                             argVal = value;
                         }
                     }
@@ -229,20 +345,43 @@ public class AuditLogAdvisor implements InitializingBean {
                         argVal = value;
                     }
                     argVal = StringUtils.defaultIfBlank(argVal, "");
-                    builder.addArg(com.apzda.cloud.audit.proto.Arg.newBuilder().setIndex(idx++).setValue(argVal));
+                    builder.addArg(com.apzda.cloud.audit.proto.Arg.newBuilder().setIndex(idx).setValue(argVal));
                 }
             }
 
-            com.apzda.cloud.audit.logging.Logger.log(auditService, objectMapper, builder);
+            return builder.build();
         }
         catch (Exception e) {
             try {
-                log.warn("Cannot send audit log: {} - {}", objectMapper.writeValueAsString(builder.build()),
+                log.warn("Cannot build audit log: {} - {}", objectMapper.writeValueAsString(builder.build()),
                         e.getMessage(), e);
             }
             catch (Exception ignored) {
             }
         }
+        return null;
+    }
+
+    /**
+     * Get the descriptor of the intercepted method, it is resolved only once per method.
+     */
+    private AuditMethodDescriptor descriptor(ProceedingJoinPoint pjp) {
+        val method = ((MethodSignature) pjp.getSignature()).getMethod();
+        val descriptor = descriptors.get(method);
+        if (descriptor != null) {
+            return descriptor;
+        }
+        return descriptors.computeIfAbsent(method, (key) -> {
+            var ann = AnnotatedElementUtils.findMergedAnnotation(key, AuditLog.class);
+            if (ann == null && pjp.getTarget() != null) {
+                val specific = AopUtils.getMostSpecificMethod(key, pjp.getTarget().getClass());
+                ann = AnnotatedElementUtils.findMergedAnnotation(specific, AuditLog.class);
+            }
+            if (ann == null) {
+                throw new IllegalStateException("@AuditLog is not present on " + key);
+            }
+            return AuditMethodDescriptor.of(key, ann, expressionParser, parserContext);
+        });
     }
 
     private Throwable transform(Throwable e) {
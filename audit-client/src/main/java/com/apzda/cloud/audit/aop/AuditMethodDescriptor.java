@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.aop;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.ParserContext;
+
+import java.lang.reflect.Method;
+
+/**
+ * Everything {@link AuditLogAdvisor} needs to know about an {@link AuditLog} annotated
+ * method, resolved once per method.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Getter
+@Slf4j
+public final class AuditMethodDescriptor {
+
+    private final Method method;
+
+    private final String activity;
+
+    private final String level;
+
+    private final boolean async;
+
+    private final String message;
+
+    private final String error;
+
+    private final String template;
+
+    private final String errorTpl;
+
+    private final String[] args;
+
+    private final String[] parameterNames;
+
+    private final ParsedExpression messageExpression;
+
+    private final ParsedExpression errorExpression;
+
+    private final ParsedExpression[] argExpressions;
+
+    private AuditMethodDescriptor(Method method, AuditLog ann, ExpressionParser parser,
+            ParserContext parserContext) {
+        this.method = method;
+        this.activity = StringUtils.defaultIfBlank(ann.value(), ann.activity());
+        this.level = StringUtils.defaultIfBlank(ann.level(), "info");
+        this.async = ann.async();
+        this.message = blankToNull(ann.message());
+        this.error = blankToNull(ann.error());
+        this.template = blankToNull(ann.template());
+        this.errorTpl = blankToNull(ann.errorTpl());
+        this.args = ann.args();
+        this.messageExpression = isTemplateExpression(message)
+                ? parse(parser, parserContext, "message", message) : null;
+        this.errorExpression = isTemplateExpression(error) ? parse(parser, parserContext, "error", error) : null;
+        this.argExpressions = new ParsedExpression[args.length];
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("#")) {
+                argExpressions[i] = parse(parser, null, "args", args[i]);
+            }
+        }
+        val parameters = method.getParameters();
+        this.parameterNames = new String[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            parameterNames[i] = parameters[i].getName();
+        }
+    }
+
+    public static AuditMethodDescriptor of(Method method, AuditLog ann, ExpressionParser parser,
+            ParserContext parserContext) {
+        return new AuditMethodDescriptor(method, ann, parser, parserContext);
+    }
+
+    public boolean hasMessage() {
+        return message != null;
+    }
+
+    public boolean hasError() {
+        return error != null;
+    }
+
+    public boolean hasTemplate() {
+        return template != null;
+    }
+
+    public boolean hasErrorTpl() {
+        return errorTpl != null;
+    }
+
+    private static String blankToNull(String value) {
+        return StringUtils.isBlank(value) ? null : value;
+    }
+
+    private static boolean isTemplateExpression(String value) {
+        return value != null && value.startsWith("#{") && value.endsWith("}");
+    }
+
+    private ParsedExpression parse(ExpressionParser parser, ParserContext parserContext, String attribute,
+            String source) {
+        try {
+            val expression = parserContext != null ? parser.parseExpression(source, parserContext)
+                    : parser.parseExpression(source);
+            return new ParsedExpression(expression, null);
+        }
+        catch (Exception e) {
+            log.warn("Invalid {} expression '{}' of @AuditLog on {}: {}", attribute, source, method,
+                    e.getMessage());
+            return new ParsedExpression(null, e.getMessage());
+        }
+    }
+
+    /**
+     * A parsed expression or the reason why it cannot be parsed.
+     */
+    public record ParsedExpression(Expression expression, String error) {
+
+        public boolean isValid() {
+            return expression != null;
+        }
+
+        public String getValue(EvaluationContext context) {
+            if (expression == null) {
+                throw new IllegalArgumentException(error);
+            }
+            return expression.getValue(context, String.class);
+        }
+
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.aop;
+
+import com.apzda.cloud.audit.ValueSanitizer;
+import jakarta.annotation.Nonnull;
+import lombok.val;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An ordered chain of {@link ValueSanitizer}s. The sanitizers that may be applied to a
+ * class are resolved once per class.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+public final class ValueSanitizers {
+
+    public static final ValueSanitizers EMPTY = new ValueSanitizers(List.of());
+
+    private static final int[] NONE = new int[0];
+
+    private final ValueSanitizer<?>[] sanitizers;
+
+    private final Class<?>[][] supportedTypes;
+
+    private final Map<Class<?>, int[]> chains = new ConcurrentHashMap<>(64);
+
+    private ValueSanitizers(List<? extends ValueSanitizer<?>> sanitizers) {
+        this.sanitizers = sanitizers.toArray(new ValueSanitizer<?>[0]);
+        this.supportedTypes = new Class<?>[this.sanitizers.length][];
+        for (int i = 0; i < this.sanitizers.length; i++) {
+            supportedTypes[i] = this.sanitizers[i].supportedTypes();
+        }
+    }
+
+    /**
+     * @param sanitizers the sanitizers, already sorted.
+     */
+    public static ValueSanitizers of(List<? extends ValueSanitizer<?>> sanitizers) {
+        if (sanitizers.isEmpty()) {
+            return EMPTY;
+        }
+        return new ValueSanitizers(sanitizers);
+    }
+
+    public boolean isEmpty() {
+        return sanitizers.length == 0;
+    }
+
+    @Nonnull
+    public Object sanitize(@Nonnull Object value) {
+        if (sanitizers.length == 0) {
+            return value;
+        }
+        val type = value.getClass();
+        val chain = chain(type);
+        for (int i = 0; i < chain.length; i++) {
+            val sanitizer = sanitizers[chain[i]];
+            if (sanitizer.support(value)) {
+                value = sanitizer.sanitize(value);
+                if (value.getClass() != type) {
+                    // the value was replaced by one of another type
+                    return sanitize(value, chain[i] + 1);
+                }
+            }
+        }
+        return value;
+    }
+
+    private Object sanitize(Object value, int from) {
+        for (int i = from; i < sanitizers.length; i++) {
+            if (applicable(i, value.getClass()) && sanitizers[i].support(value)) {
+                value = sanitizers[i].sanitize(value);
+            }
+        }
+        return value;
+    }
+
+    private int[] chain(Class<?> type) {
+        val chain = chains.get(type);
+        if (chain != null) {
+            return chain;
+        }
+        return chains.computeIfAbsent(type, (key) -> {
+            val indexes = new int[sanitizers.length];
+            var count = 0;
+            for (int i = 0; i < sanitizers.length; i++) {
+                if (applicable(i, key)) {
+                    indexes[count++] = i;
+                }
+            }
+            if (count == 0) {
+                return NONE;
+            }
+            val result = new int[count];
+            System.arraycopy(indexes, 0, result, 0, count);
+            return result;
+        });
+    }
+
+    private boolean applicable(int index, Class<?> type) {
+        val types = supportedTypes[index];
+        if (types.length == 0) {
+            return true;
+        }
+        for (Class<?> supported : types) {
+            if (supported.isAssignableFrom(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -16,15 +16,42 @@
  */
 package com.apzda.cloud.audit.autoconfig;
 
+import com.apzda.cloud.audit.logging.AuditCoalescer;
+import com.apzda.cloud.audit.logging.AuditLogDispatcher;
+import com.apzda.cloud.audit.logging.AuditLogSender;
 import com.apzda.cloud.audit.logging.AuditLogger;
 import com.apzda.cloud.audit.logging.AuditLoggerImpl;
+import com.apzda.cloud.audit.logging.AuditSampler;
+import com.apzda.cloud.audit.logging.AuditSink;
+import com.apzda.cloud.audit.logging.AuditSinks;
+import com.apzda.cloud.audit.logging.FileAuditSink;
+import com.apzda.cloud.audit.logging.LocalAuditSink;
+import com.apzda.cloud.audit.logging.Slf4jAuditSink;
+import com.apzda.cloud.audit.logging.ValueDiffer;
+import com.apzda.cloud.audit.logging.ValueSerializer;
+import com.apzda.cloud.audit.metrics.AuditClientMetrics;
+import com.apzda.cloud.audit.proto.AuditLog;
 import com.apzda.cloud.audit.proto.AuditService;
+import com.apzda.cloud.audit.spool.AuditSpool;
 import com.apzda.cloud.gsvc.config.EnableGsvcServices;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 import io.micrometer.observation.ObservationRegistry;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.core.env.Environment;
+
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -33,13 +60,105 @@ import org.springframework.context.annotation.ComponentScan;
  **/
 @ComponentScan({ "com.apzda.cloud.audit.aop", "com.apzda.cloud.audit.listener" })
 @EnableGsvcServices({ AuditService.class })
+@EnableConfigurationProperties(AuditClientProperties.class)
+@Slf4j
 public class AuditAutoConfiguration {
 
+    @Bean
+    @ConditionalOnMissingBean({ AuditLogSender.class, LocalAuditSink.class })
+    @ConditionalOnProperty(prefix = "apzda.audit.client.sink.remote", name = "enabled", havingValue = "true",
+            matchIfMissing = true)
+    AuditLogSender auditLogSender(AuditService auditService, AuditClientProperties properties) {
+        val config = properties.getSpool();
+        if (!config.isEnabled()) {
+            return new AuditLogSender(auditService);
+        }
+        try {
+            val spool = new AuditSpool(config.getDirectory().toPath(), (int) config.getSegmentSize().toBytes(),
+                    config.getMaxSize().toBytes(), config.getFsync(), config.getFsyncInterval());
+            return new AuditLogSender(auditService, spool, config.getReplayBatchSize(), config.getRetryInterval());
+        }
+        catch (Exception e) {
+            log.error("Cannot open audit spool at {}, audit logs will not be spooled: {}", config.getDirectory(),
+                    e.getMessage());
+            return new AuditLogSender(auditService);
+        }
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "apzda.audit.client.sink.file", name = "enabled", havingValue = "true")
+    FileAuditSink fileAuditSink(AuditClientProperties properties, ObjectMapper objectMapper) {
+        val config = properties.getSink().getFile();
+        return new FileAuditSink(config.getDirectory().toPath(), config.getFormat(), config.getMaxFileSize().toBytes(),
+                config.getMaxHistory(), objectMapper);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "apzda.audit.client.sink.slf4j", name = "enabled", havingValue = "true",
+            matchIfMissing = true)
+    Slf4jAuditSink slf4jAuditSink(AuditClientProperties properties, ObjectMapper objectMapper) {
+        return new Slf4jAuditSink(properties.getSink().getSlf4j().getLogger(), objectMapper);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    AuditSinks auditSinks(ObjectProvider<AuditSink> sinks, AuditClientProperties properties,
+            AuditClientMetrics auditClientMetrics, ConfigurableListableBeanFactory beanFactory) {
+        // the sinks must outlive the fan-out, so that pending logs can be written on shutdown
+        for (String name : beanFactory.getBeanNamesForType(AuditSink.class, false, false)) {
+            beanFactory.registerDependentBean(name, "auditSinks");
+        }
+        return new AuditSinks(sinks.orderedStream().toList(), properties.getSink().getQueueCapacity(),
+                properties.getDispatcher().getShutdownTimeout().toMillis(), auditClientMetrics);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    AuditClientMetrics auditClientMetrics(ObjectProvider<MeterRegistry> meterRegistry,
+            AuditClientProperties properties) {
+        return new AuditClientMetrics(meterRegistry.getIfAvailable(CompositeMeterRegistry::new),
+                properties.getMetrics().getMaxActivities());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "apzda.audit.client.coalesce", name = "enabled", havingValue = "true")
+    AuditCoalescer auditCoalescer(AuditSinks auditSinks, AuditClientProperties properties) {
+        val coalesce = properties.getCoalesce();
+        return new AuditCoalescer(auditSinks, coalesce.getWindow().toMillis(), coalesce.getMaxKeys());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    AuditLogDispatcher auditLogDispatcher(ObservationRegistry observationRegistry, AuditSinks auditSinks,
+            ObjectProvider<AuditCoalescer> auditCoalescer, AuditClientProperties properties,
+            AuditClientMetrics auditClientMetrics) {
+        val coalescer = auditCoalescer.getIfAvailable();
+        final Consumer<List<AuditLog>> sender = coalescer != null ? coalescer : auditSinks;
+        return new AuditLogDispatcher(properties.getDispatcher(), observationRegistry, sender, auditSinks::write,
+                auditClientMetrics);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    ValueDiffer auditValueDiffer(AuditClientProperties properties, AuditClientMetrics auditClientMetrics) {
+        return new ValueDiffer(properties.getDiff(),
+                new ValueSerializer(properties.getMaxValueSize().toBytes(), auditClientMetrics));
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    AuditSampler auditSampler(Environment environment, AuditClientMetrics auditClientMetrics) {
+        return new AuditSampler(() -> Binder.get(environment)
+            .bind("apzda.audit.client.sampling", AuditClientProperties.Sampling.class)
+            .orElseGet(AuditClientProperties.Sampling::new), auditClientMetrics);
+    }
+
     @Bean
     @ConditionalOnMissingBean
-    AuditLogger auditLogger(AuditService auditService, ObservationRegistry observationRegistry,
-            ObjectMapper objectMapper) {
-        return new AuditLoggerImpl(auditService, objectMapper, observationRegistry);
+    AuditLogger auditLogger(AuditService auditService, AuditLogDispatcher auditLogDispatcher,
+            ObjectMapper objectMapper, ValueDiffer auditValueDiffer, AuditSampler auditSampler) {
+        return new AuditLoggerImpl(auditService, objectMapper, auditLogDispatcher, auditValueDiffer, auditSampler);
     }
 
 }
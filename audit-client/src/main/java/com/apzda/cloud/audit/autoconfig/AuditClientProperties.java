@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.autoconfig;
+
+import com.apzda.cloud.audit.logging.BackpressurePolicy;
+import com.apzda.cloud.audit.logging.FileAuditSink;
+import com.apzda.cloud.audit.logging.ValueDiffer;
+import com.apzda.cloud.audit.spool.AuditSpool;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Data
+@ConfigurationProperties(prefix = "apzda.audit.client")
+public class AuditClientProperties {
+
+    private final Dispatcher dispatcher = new Dispatcher();
+
+    private final Spool spool = new Spool();
+
+    private final Diff diff = new Diff();
+
+    private final Sink sink = new Sink();
+
+    private final Metrics metrics = new Metrics();
+
+    private final Sampling sampling = new Sampling();
+
+    private final Coalesce coalesce = new Coalesce();
+
+    /**
+     * Resolve the audited methods of all beans at startup instead of on first call.
+     */
+    private boolean eagerInit = false;
+
+    /**
+     * Max size of the serialized old or new value, larger values are truncated. 0 means
+     * no limit.
+     */
+    private DataSize maxValueSize = DataSize.ofMegabytes(1);
+
+    @Data
+    public static class Dispatcher {
+
+        /**
+         * Max number of audit events waiting to be sent.
+         */
+        private int queueCapacity = 8192;
+
+        /**
+         * Max number of audit events sent in one batch.
+         */
+        private int batchSize = 100;
+
+        /**
+         * How long a drain thread waits for a batch to fill up.
+         */
+        private Duration linger = Duration.ofMillis(50);
+
+        /**
+         * Number of drain threads.
+         */
+        private int threads = 1;
+
+        /**
+         * How long to wait for pending events to be sent on shutdown.
+         */
+        private Duration shutdownTimeout = Duration.ofSeconds(5);
+
+        /**
+         * What to do with an event when the queue is full.
+         */
+        private BackpressurePolicy backpressure = BackpressurePolicy.DROP_NEWEST;
+
+        /**
+         * Policies by level, e.g. {@code error: block}.
+         */
+        private Map<String, BackpressurePolicy> levelBackpressure = new HashMap<>();
+
+        /**
+         * Policies by activity, they take precedence over the policies by level.
+         */
+        private Map<String, BackpressurePolicy> activityBackpressure = new HashMap<>();
+
+        /**
+         * How long the {@code block} policy waits for space in the queue.
+         */
+        private Duration blockTimeout = Duration.ofMillis(100);
+
+    }
+
+    @Data
+    public static class Spool {
+
+        /**
+         * Write audit logs that cannot be sent to a local spool and replay them later.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The spool directory, it must not be shared by processes.
+         */
+        private File directory = new File(System.getProperty("java.io.tmpdir"), "apzda-audit-spool");
+
+        private DataSize segmentSize = DataSize.ofMegabytes(16);
+
+        /**
+         * Max disk space used by the spool, new logs are dropped when it is full. At least
+         * two segments are used.
+         */
+        private DataSize maxSize = DataSize.ofMegabytes(256);
+
+        private AuditSpool.FsyncPolicy fsync = AuditSpool.FsyncPolicy.INTERVAL;
+
+        private Duration fsyncInterval = Duration.ofSeconds(1);
+
+        /**
+         * Max number of logs replayed in one batch.
+         */
+        private int replayBatchSize = 100;
+
+        /**
+         * How long to wait before sending to the audit service again after a failure.
+         */
+        private Duration retryInterval = Duration.ofSeconds(5);
+
+    }
+
+    @Data
+    public static class Diff {
+
+        /**
+         * Send a JSON Patch between the old and new values instead of both of them.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The value sent along with the patch.
+         */
+        private ValueDiffer.Base base = ValueDiffer.Base.OLD;
+
+    }
+
+    @Data
+    public static class Sink {
+
+        /**
+         * Max number of batches waiting to be written by a sink.
+         */
+        private int queueCapacity = 1024;
+
+        private final RemoteSink remote = new RemoteSink();
+
+        private final FileSink file = new FileSink();
+
+        private final Slf4jSink slf4j = new Slf4jSink();
+
+    }
+
+    @Data
+    public static class RemoteSink {
+
+        /**
+         * Send audit logs to the audit service.
+         */
+        private boolean enabled = true;
+
+    }
+
+    @Data
+    public static class FileSink {
+
+        /**
+         * Write audit logs to a local file.
+         */
+        private boolean enabled = false;
+
+        private File directory = new File("logs", "audit");
+
+        private FileAuditSink.Format format = FileAuditSink.Format.NDJSON;
+
+        private DataSize maxFileSize = DataSize.ofMegabytes(100);
+
+        /**
+         * Number of rolled files to keep.
+         */
+        private int maxHistory = 7;
+
+    }
+
+    @Data
+    public static class Slf4jSink {
+
+        /**
+         * Write audit logs as JSON to a slf4j logger.
+         */
+        private boolean enabled = true;
+
+        private String logger = "audit";
+
+    }
+
+    @Data
+    public static class Metrics {
+
+        /**
+         * Max number of activities tagged by name, the others are tagged "other".
+         */
+        private int maxActivities = 100;
+
+    }
+
+    @Data
+    public static class Sampling {
+
+        private boolean enabled = true;
+
+        /**
+         * How often the rules are bound again from the environment, 0 disables reloading.
+         */
+        private Duration reloadInterval = Duration.ofSeconds(30);
+
+        /**
+         * Rules checked in order, the first one matching the activity applies.
+         */
+        private List<SamplingRule> rules = new ArrayList<>();
+
+    }
+
+    @Data
+    public static class SamplingRule {
+
+        /**
+         * Activity pattern, {@code *} matches any characters.
+         */
+        private String activity;
+
+        /**
+         * Drop all the events of the activity.
+         */
+        private boolean suppress = false;
+
+        /**
+         * Ratio of the events kept, between 0 and 1.
+         */
+        private Double ratio;
+
+        /**
+         * Max number of events kept per second.
+         */
+        private Double rate;
+
+        /**
+         * Max number of events kept in a burst, defaults to the rate.
+         */
+        private Integer burst;
+
+    }
+
+    @Data
+    public static class Coalesce {
+
+        /**
+         * Merge audit events that are identical apart from their timestamp.
+         */
+        private boolean enabled = false;
+
+        /**
+         * How long identical events are collected before the merged event is sent.
+         */
+        private Duration window = Duration.ofSeconds(5);
+
+        /**
+         * Max number of distinct events collected in a window, the others are sent as
+         * is.
+         */
+        private int maxKeys = 10000;
+
+    }
+
+}
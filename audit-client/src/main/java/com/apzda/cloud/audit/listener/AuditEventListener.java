@@ -17,6 +17,7 @@
 package com.apzda.cloud.audit.listener;
 
 import com.apzda.cloud.audit.logging.AuditLogger;
+import com.apzda.cloud.audit.logging.AuditSampler;
 import com.apzda.cloud.audit.proto.Arg;
 import com.apzda.cloud.gsvc.event.AuditEvent;
 import jakarta.annotation.Nonnull;
@@ -42,6 +43,8 @@ public class AuditEventListener implements ApplicationListener<AuditEvent> {
 
     private final AuditLogger auditLogger;
 
+    private final AuditSampler auditSampler;
+
     @Override
     public boolean supportsAsyncExecution() {
         return false;
@@ -55,7 +58,10 @@ public class AuditEventListener implements ApplicationListener<AuditEvent> {
         val timestamp = event.getTimestamp();
 
         val activity = StringUtils.defaultIfBlank(audit.getActivity(), "audit");
-        val logger = auditLogger.activity(activity);
+        if (!auditSampler.sample(activity, audit.getLevel())) {
+            return;
+        }
+        val logger = auditLogger.activity(activity).sampled();
         if (StringUtils.isNotBlank(audit.getUserId())) {
             logger.userId(audit.getUserId());
         }
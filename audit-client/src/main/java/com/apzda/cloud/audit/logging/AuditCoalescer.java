@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.logging;
+
+import com.apzda.cloud.audit.proto.AuditLog;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Merges audit events that are identical apart from their timestamp and arrive within
+ * the same window into one event, whose {@code repeat_count} is the number of merged
+ * events, {@code timestamp} the first timestamp and {@code last_timestamp} the last one.
+ * <p>
+ * Events carrying an old value, a new value or a value patch are never merged. When
+ * {@code maxKeys} distinct events are already waiting, new ones are passed through.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Slf4j
+public class AuditCoalescer implements Consumer<List<AuditLog>>, DisposableBean {
+
+    private final Consumer<List<AuditLog>> downstream;
+
+    private final int maxKeys;
+
+    private final Map<AuditLog, Pending> pending = new LinkedHashMap<>();
+
+    private final ScheduledExecutorService scheduler;
+
+    private volatile boolean closed;
+
+    public AuditCoalescer(Consumer<List<AuditLog>> downstream, long window, int maxKeys) {
+        this.downstream = downstream;
+        this.maxKeys = Math.max(1, maxKeys);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            val thread = new Thread(runnable, "audit-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        val period = Math.max(1, window);
+        this.scheduler.scheduleWithFixedDelay(this::flush, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void accept(List<AuditLog> logs) {
+        if (closed) {
+            downstream.accept(logs);
+            return;
+        }
+        List<AuditLog> passed = null;
+        synchronized (pending) {
+            for (AuditLog auditLog : logs) {
+                if (!merge(auditLog)) {
+                    if (passed == null) {
+                        passed = new ArrayList<>();
+                    }
+                    passed.add(auditLog);
+                }
+            }
+        }
+        if (passed != null) {
+            downstream.accept(passed);
+        }
+    }
+
+    /**
+     * Send the merged events waiting in the current window.
+     */
+    public void flush() {
+        final List<AuditLog> logs;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            logs = new ArrayList<>(pending.size());
+            for (Pending merged : pending.values()) {
+                logs.add(merged.toAuditLog());
+            }
+            pending.clear();
+        }
+        try {
+            downstream.accept(logs);
+        }
+        catch (Exception e) {
+            log.warn("Cannot send {} coalesced audit logs: {}", logs.size(), e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        closed = true;
+        scheduler.shutdown();
+        scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        flush();
+    }
+
+    private boolean merge(AuditLog auditLog) {
+        if (auditLog.hasOldJsonValue() || auditLog.hasNewJsonValue() || auditLog.hasValuePatch()
+                || auditLog.getRepeatCount() > 1) {
+            return false;
+        }
+        val key = auditLog.toBuilder().clearTimestamp().clearId().build();
+        val merged = pending.get(key);
+        if (merged != null) {
+            merged.add(auditLog.getTimestamp());
+            return true;
+        }
+        if (pending.size() >= maxKeys) {
+            return false;
+        }
+        pending.put(key, new Pending(auditLog));
+        return true;
+    }
+
+    private static final class Pending {
+
+        private final AuditLog first;
+
+        private long from;
+
+        private long last;
+
+        private int count = 1;
+
+        Pending(AuditLog first) {
+            this.first = first;
+            this.from = first.getTimestamp();
+            this.last = from;
+        }
+
+        void add(long timestamp) {
+            count++;
+            from = Math.min(from, timestamp);
+            last = Math.max(last, timestamp);
+        }
+
+        AuditLog toAuditLog() {
+            if (count == 1) {
+                return first;
+            }
+            return first.toBuilder().setTimestamp(from).setRepeatCount(count).setLastTimestamp(last).build();
+        }
+
+    }
+
+}
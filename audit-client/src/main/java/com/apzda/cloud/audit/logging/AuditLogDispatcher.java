@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.logging;
+
+import com.apzda.cloud.audit.autoconfig.AuditClientProperties;
+import com.apzda.cloud.audit.metrics.AuditClientMetrics;
+import com.apzda.cloud.audit.proto.AuditLog;
+import com.apzda.cloud.gsvc.core.GsvcContextHolder;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Sends audit events in batches from a bounded queue drained by dedicated threads.
+ * <p>
+ * Events are queued as suppliers so that message evaluation and building happen on
+ * the drain threads instead of the caller thread. A batch is flushed when it reaches
+ * {@code batchSize} events or when {@code linger} has elapsed since its first event.
+ * <p>
+ * When the queue is full a {@link BackpressurePolicy} chosen by activity, level or the
+ * default one decides what happens to the event, so audit overload never grows the
+ * heap or stalls the caller for longer than the block timeout.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Slf4j
+public class AuditLogDispatcher implements InitializingBean, DisposableBean {
+
+    private final BlockingQueue<Event> queue;
+
+    private final int batchSize;
+
+    private final long lingerNanos;
+
+    private final int threads;
+
+    private final long shutdownTimeout;
+
+    private final ObservationRegistry observationRegistry;
+
+    private final Consumer<List<AuditLog>> sender;
+
+    private final Consumer<List<AuditLog>> syncSender;
+
+    private final BackpressurePolicy backpressure;
+
+    private final Map<String, BackpressurePolicy> levelBackpressure;
+
+    private final Map<String, BackpressurePolicy> activityBackpressure;
+
+    private final long blockTimeoutNanos;
+
+    private final AuditClientMetrics metrics;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private volatile boolean running;
+
+    public AuditLogDispatcher(AuditClientProperties.Dispatcher config, ObservationRegistry observationRegistry,
+            Consumer<List<AuditLog>> sender) {
+        this(config, observationRegistry, sender, sender);
+    }
+
+    /**
+     * @param sender receives the batches of queued events on the drain threads.
+     * @param syncSender receives the events {@link #send(AuditLog) sent} on the caller
+     * thread.
+     */
+    public AuditLogDispatcher(AuditClientProperties.Dispatcher config, ObservationRegistry observationRegistry,
+            Consumer<List<AuditLog>> sender, Consumer<List<AuditLog>> syncSender) {
+        this(config, observationRegistry, sender, syncSender, AuditClientMetrics.NOOP);
+    }
+
+    public AuditLogDispatcher(AuditClientProperties.Dispatcher config, ObservationRegistry observationRegistry,
+            Consumer<List<AuditLog>> sender, Consumer<List<AuditLog>> syncSender, AuditClientMetrics metrics) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, config.getQueueCapacity()));
+        this.batchSize = Math.max(1, config.getBatchSize());
+        this.lingerNanos = Math.max(1, config.getLinger().toNanos());
+        this.threads = Math.max(1, config.getThreads());
+        this.shutdownTimeout = config.getShutdownTimeout().toMillis();
+        this.observationRegistry = observationRegistry;
+        this.sender = sender;
+        this.syncSender = syncSender;
+        this.backpressure = config.getBackpressure();
+        this.levelBackpressure = new HashMap<>();
+        config.getLevelBackpressure().forEach((level, policy) -> levelBackpressure.put(level.toLowerCase(), policy));
+        this.activityBackpressure = new HashMap<>(config.getActivityBackpressure());
+        this.blockTimeoutNanos = config.getBlockTimeout().toNanos();
+        this.metrics = metrics;
+        metrics.gauge("queue.size", "Audit events waiting to be sent", queue, BlockingQueue::size);
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        running = true;
+        for (int i = 0; i < threads; i++) {
+            val worker = new Thread(this::drain, "audit-dispatcher-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        val deadline = System.currentTimeMillis() + shutdownTimeout;
+        for (Thread worker : workers) {
+            val wait = deadline - System.currentTimeMillis();
+            if (wait > 0) {
+                worker.join(wait);
+            }
+        }
+        if (!queue.isEmpty()) {
+            log.warn("{} audit events were not sent before shutdown", queue.size());
+        }
+    }
+
+    /**
+     * Queue an audit event to be sent asynchronously, the default backpressure policy is
+     * applied when the queue is full.
+     * @param event supplies the audit log, it is called on a drain thread. A
+     * {@code null} result means there is nothing to send.
+     * @return {@code false} if the queue is full and the event was dropped.
+     */
+    public boolean dispatch(Supplier<AuditLog> event) {
+        return dispatch(null, null, event, backpressure);
+    }
+
+    /**
+     * Queue an audit event to be sent asynchronously, the backpressure policy of the
+     * activity or level is applied when the queue is full.
+     * @return {@code false} if the event was dropped.
+     */
+    public boolean dispatch(String activity, String level, Supplier<AuditLog> event) {
+        return dispatch(activity, level, event, policy(activity, level));
+    }
+
+    private boolean dispatch(String activity, String level, Supplier<AuditLog> supplier, BackpressurePolicy policy) {
+        val event = new Event(activity, level, supplier);
+        if (queue.offer(event)) {
+            return true;
+        }
+        switch (policy) {
+            case BLOCK -> {
+                try {
+                    if (queue.offer(event, blockTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                        metrics.backpressure(policy.name(), "blocked");
+                        return true;
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                metrics.backpressure(policy.name(), "timeout");
+            }
+            case DROP_OLDEST -> {
+                do {
+                    val evicted = queue.poll();
+                    if (evicted != null) {
+                        metrics.backpressure(policy.name(), "evicted");
+                        metrics.event("dispatcher", evicted.activity(), evicted.level(), "dropped");
+                        warnDropped();
+                    }
+                }
+                while (!queue.offer(event));
+                return true;
+            }
+            case CALLER_RUNS -> {
+                metrics.backpressure(policy.name(), "caller_runs");
+                // the event is meant for a drain thread and may replace the context
+                val callerContext = GsvcContextHolder.getContext();
+                try {
+                    val auditLog = supplier.get();
+                    if (auditLog != null) {
+                        syncSender.accept(Collections.singletonList(auditLog));
+                    }
+                }
+                catch (Exception e) {
+                    log.warn("Cannot send audit log: {}", e.getMessage(), e);
+                }
+                finally {
+                    callerContext.restore();
+                }
+                return true;
+            }
+            default -> metrics.backpressure(policy.name(), "dropped");
+        }
+        metrics.event("dispatcher", activity, level, "dropped");
+        warnDropped();
+        return false;
+    }
+
+    private BackpressurePolicy policy(String activity, String level) {
+        if (activity != null && !activityBackpressure.isEmpty()) {
+            val policy = activityBackpressure.get(activity);
+            if (policy != null) {
+                return policy;
+            }
+        }
+        if (level != null && !levelBackpressure.isEmpty()) {
+            val policy = levelBackpressure.get(level);
+            if (policy != null) {
+                return policy;
+            }
+        }
+        return backpressure;
+    }
+
+    private void warnDropped() {
+        val count = dropped.incrementAndGet();
+        if (count % 1000 == 1) {
+            log.warn("Audit queue is full(capacity: {}), {} events dropped so far", queue.remainingCapacity()
+                    + queue.size(), count);
+        }
+    }
+
+    /**
+     * Send an audit event on the caller thread.
+     */
+    public void send(AuditLog auditLog) {
+        syncSender.accept(Collections.singletonList(auditLog));
+    }
+
+    public int getPending() {
+        return queue.size();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void drain() {
+        val pending = new ArrayList<Event>(batchSize);
+        val batch = new ArrayList<AuditLog>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                val first = queue.poll(lingerNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                pending.add(first);
+                val deadline = System.nanoTime() + lingerNanos;
+                while (pending.size() < batchSize) {
+                    if (queue.drainTo(pending, batchSize - pending.size()) > 0) {
+                        continue;
+                    }
+                    val wait = deadline - System.nanoTime();
+                    if (wait <= 0) {
+                        break;
+                    }
+                    val next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    pending.add(next);
+                }
+                for (Event event : pending) {
+                    try {
+                        val auditLog = event.supplier().get();
+                        if (auditLog != null) {
+                            batch.add(auditLog);
+                        }
+                    }
+                    catch (Exception e) {
+                        log.warn("Cannot build audit log: {}", e.getMessage(), e);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            finally {
+                pending.clear();
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<AuditLog> batch) {
+        try {
+            val observation = Observation.createNotStarted("async", this.observationRegistry);
+            observation.observe(() -> sender.accept(batch));
+        }
+        catch (Exception e) {
+            log.warn("Cannot send {} audit logs: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    private record Event(String activity, String level, Supplier<AuditLog> supplier) {
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.logging;
+
+import com.apzda.cloud.audit.proto.AuditLog;
+import com.apzda.cloud.audit.proto.AuditService;
+import com.apzda.cloud.audit.spool.AuditSpool;
+import jakarta.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends audit logs to the {@link AuditService}.
+ * <p>
+ * When a spool is given, logs that cannot be delivered are written to it and the
+ * circuit is opened for {@code retryInterval}. While the circuit is open new logs go
+ * straight to the spool. A background thread replays the spool once the service can be
+ * reached again.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Slf4j
+public class AuditLogSender implements AuditSink, InitializingBean, DisposableBean {
+
+    private final AuditService auditService;
+
+    private final AuditSpool spool;
+
+    private final int replayBatchSize;
+
+    private final long retryInterval;
+
+    private volatile long circuitOpenUntil;
+
+    private volatile boolean running;
+
+    private Thread replayer;
+
+    private long spoolDropped;
+
+    public AuditLogSender(AuditService auditService) {
+        this(auditService, null, 0, Duration.ZERO);
+    }
+
+    public AuditLogSender(AuditService auditService, AuditSpool spool, int replayBatchSize,
+            Duration retryInterval) {
+        this.auditService = auditService;
+        this.spool = spool;
+        this.replayBatchSize = Math.max(1, replayBatchSize);
+        this.retryInterval = retryInterval.toMillis();
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (spool != null) {
+            running = true;
+            replayer = new Thread(this::replay, "audit-spool-replayer");
+            replayer.setDaemon(true);
+            replayer.start();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        if (replayer != null) {
+            replayer.interrupt();
+            replayer.join(retryInterval + 1000);
+        }
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public String getName() {
+        return "remote";
+    }
+
+    @Override
+    public void write(@Nonnull List<AuditLog> logs) {
+        if (spool != null && isCircuitOpen()) {
+            spool(logs);
+            return;
+        }
+        val failed = Logger.send(auditService, logs);
+        if (!failed.isEmpty() && spool != null) {
+            openCircuit();
+            spool(failed);
+        }
+    }
+
+    public boolean isCircuitOpen() {
+        return System.currentTimeMillis() < circuitOpenUntil;
+    }
+
+    private void openCircuit() {
+        circuitOpenUntil = System.currentTimeMillis() + retryInterval;
+    }
+
+    private void spool(List<AuditLog> logs) {
+        val count = spool.append(logs);
+        if (count < logs.size()) {
+            synchronized (this) {
+                spoolDropped += logs.size() - count;
+                log.warn("Audit spool is full, {} audit logs dropped so far", spoolDropped);
+            }
+        }
+    }
+
+    /**
+     * Replays the spool. When a batch is only partly delivered, the read position moves
+     * past the logs delivered before the first failure and only the failed logs are sent
+     * again; the batch is consumed once all of them are delivered.
+     */
+    private void replay() {
+        List<AuditLog> retry = null;
+        while (running) {
+            try {
+                if (isCircuitOpen() || (retry == null && spool.isEmpty())) {
+                    TimeUnit.MILLISECONDS.sleep(Math.max(100, retryInterval));
+                    continue;
+                }
+                val logs = retry != null ? retry : spool.peek(replayBatchSize);
+                if (logs.isEmpty()) {
+                    spool.commit();
+                    continue;
+                }
+                val failed = Logger.send(auditService, logs);
+                if (failed.isEmpty()) {
+                    spool.commit();
+                    retry = null;
+                    continue;
+                }
+                if (retry == null) {
+                    spool.commit(delivered(logs, failed));
+                }
+                retry = failed;
+                openCircuit();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (Exception e) {
+                log.warn("Cannot replay audit spool: {}", e.getMessage());
+                openCircuit();
+            }
+        }
+    }
+
+    /**
+     * @return the number of logs delivered before the first failed one.
+     */
+    private static int delivered(List<AuditLog> logs, List<AuditLog> failed) {
+        val undelivered = Collections.newSetFromMap(new IdentityHashMap<AuditLog, Boolean>());
+        undelivered.addAll(failed);
+        for (int i = 0; i < logs.size(); i++) {
+            if (undelivered.contains(logs.get(i))) {
+                return i;
+            }
+        }
+        return logs.size();
+    }
+
+}
@@ -18,7 +18,6 @@ package com.apzda.cloud.audit.logging;
 
 import com.apzda.cloud.audit.proto.AuditService;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.micrometer.observation.ObservationRegistry;
 import lombok.RequiredArgsConstructor;
 import org.apache.commons.lang3.StringUtils;
 
@@ -34,14 +33,18 @@ public class AuditLoggerImpl implements AuditLogger {
 
     private final ObjectMapper objectMapper;
 
-    private final ObservationRegistry observationRegistry;
+    private final AuditLogDispatcher dispatcher;
+
+    private final ValueDiffer valueDiffer;
+
+    private final AuditSampler sampler;
 
     @Override
     public Logger activity(String activity) {
         if (StringUtils.isBlank(activity)) {
             throw new IllegalArgumentException("activity is blank");
         }
-        return new Logger(auditService, objectMapper, activity, observationRegistry);
+        return new Logger(auditService, objectMapper, activity, dispatcher, valueDiffer, sampler);
     }
 
 }
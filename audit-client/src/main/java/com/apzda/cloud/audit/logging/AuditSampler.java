@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.logging;
+
+import com.apzda.cloud.audit.autoconfig.AuditClientProperties;
+import com.apzda.cloud.audit.metrics.AuditClientMetrics;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.util.PatternMatchUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Decides whether an audit event is kept, according to the
+ * {@code apzda.audit.client.sampling.rules}. The first rule whose activity pattern
+ * matches applies: it can suppress the activity, keep a ratio of its events and/or
+ * limit them to a rate (token bucket). Events of level {@code error} are always kept.
+ * <p>
+ * The rules are bound again every {@code reload-interval}, so they can be changed at
+ * runtime through any property source that updates the {@code Environment}.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Slf4j
+public class AuditSampler {
+
+    /**
+     * Keeps every event.
+     */
+    public static final AuditSampler ALWAYS = new AuditSampler(AuditClientProperties.Sampling::new,
+            AuditClientMetrics.NOOP);
+
+    private static final int MAX_CACHED_ACTIVITIES = 1024;
+
+    private static final Rule NONE = new Rule(new AuditClientProperties.SamplingRule());
+
+    private final Supplier<AuditClientProperties.Sampling> config;
+
+    private final AuditClientMetrics metrics;
+
+    private final AtomicBoolean reloading = new AtomicBoolean();
+
+    private volatile Rules rules;
+
+    private volatile long nextReload;
+
+    public AuditSampler(Supplier<AuditClientProperties.Sampling> config, AuditClientMetrics metrics) {
+        this.config = config;
+        this.metrics = metrics;
+        val sampling = config.get();
+        this.rules = new Rules(sampling);
+        this.nextReload = nextReload(sampling);
+    }
+
+    /**
+     * @return {@code true} if the event should be logged.
+     */
+    public boolean sample(String activity, String level) {
+        if ("error".equalsIgnoreCase(level)) {
+            return true;
+        }
+        val nextReload = this.nextReload;
+        if (nextReload != Long.MAX_VALUE && System.nanoTime() - nextReload >= 0) {
+            reloadIfDue();
+        }
+        val rule = rules.match(activity);
+        if (rule == NONE || rule.sample()) {
+            return true;
+        }
+        metrics.event("sampler", activity, level, "sampled");
+        return false;
+    }
+
+    /**
+     * Bind the rules again, the state of the rate limits is kept when the rules did not
+     * change.
+     */
+    public void reload() {
+        val sampling = config.get();
+        val current = rules;
+        if (!current.sameAs(sampling)) {
+            rules = new Rules(sampling);
+            log.info("Audit sampling rules reloaded: {}", sampling.getRules());
+        }
+        nextReload = nextReload(sampling);
+    }
+
+    private void reloadIfDue() {
+        if (!reloading.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            reload();
+        }
+        catch (Exception e) {
+            nextReload = System.nanoTime() + 1_000_000_000L;
+            log.warn("Cannot reload audit sampling rules: {}", e.getMessage());
+        }
+        finally {
+            reloading.set(false);
+        }
+    }
+
+    private static long nextReload(AuditClientProperties.Sampling sampling) {
+        val interval = sampling.getReloadInterval();
+        if (interval == null || interval.isZero() || interval.isNegative()) {
+            return Long.MAX_VALUE;
+        }
+        return System.nanoTime() + interval.toNanos();
+    }
+
+    private static final class Rules {
+
+        private final boolean enabled;
+
+        private final List<AuditClientProperties.SamplingRule> config;
+
+        private final List<Rule> rules = new ArrayList<>();
+
+        private final Map<String, Rule> matched = new ConcurrentHashMap<>();
+
+        Rules(AuditClientProperties.Sampling sampling) {
+            this.enabled = sampling.isEnabled();
+            this.config = List.copyOf(sampling.getRules());
+            if (enabled) {
+                for (AuditClientProperties.SamplingRule rule : config) {
+                    rules.add(new Rule(rule));
+                }
+            }
+        }
+
+        boolean sameAs(AuditClientProperties.Sampling sampling) {
+            return enabled == sampling.isEnabled() && config.equals(sampling.getRules());
+        }
+
+        Rule match(String activity) {
+            if (rules.isEmpty() || activity == null) {
+                return NONE;
+            }
+            val rule = matched.get(activity);
+            if (rule != null) {
+                return rule;
+            }
+            var found = NONE;
+            for (Rule candidate : rules) {
+                if (PatternMatchUtils.simpleMatch(candidate.pattern, activity)) {
+                    found = candidate;
+                    break;
+                }
+            }
+            if (matched.size() < MAX_CACHED_ACTIVITIES) {
+                matched.put(activity, found);
+            }
+            return found;
+        }
+
+    }
+
+    private static final class Rule {
+
+        private final String pattern;
+
+        private final boolean suppress;
+
+        private final double ratio;
+
+        private final TokenBucket bucket;
+
+        Rule(AuditClientProperties.SamplingRule rule) {
+            this.pattern = rule.getActivity();
+            this.suppress = rule.isSuppress();
+            this.ratio = rule.getRatio() == null ? 1.0 : Math.max(0.0, Math.min(1.0, rule.getRatio()));
+            val rate = rule.getRate();
+            if (rate != null && rate > 0) {
+                val burst = rule.getBurst() != null && rule.getBurst() > 0 ? rule.getBurst()
+                        : Math.max(1, (int) Math.ceil(rate));
+                this.bucket = new TokenBucket(rate, burst);
+            }
+            else {
+                this.bucket = null;
+            }
+        }
+
+        boolean sample() {
+            if (suppress) {
+                return false;
+            }
+            if (ratio < 1.0 && ThreadLocalRandom.current().nextDouble() >= ratio) {
+                return false;
+            }
+            return bucket == null || bucket.tryAcquire();
+        }
+
+    }
+
+    private static final class TokenBucket {
+
+        private final double tokensPerNano;
+
+        private final double capacity;
+
+        private double tokens;
+
+        private long refilledAt;
+
+        TokenBucket(double ratePerSecond, int burst) {
+            this.tokensPerNano = ratePerSecond / 1_000_000_000.0;
+            this.capacity = burst;
+            this.tokens = burst;
+            this.refilledAt = System.nanoTime();
+        }
+
+        synchronized boolean tryAcquire() {
+            val now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+            if (tokens < 1.0) {
+                return false;
+            }
+            tokens -= 1.0;
+            return true;
+        }
+
+    }
+
+}
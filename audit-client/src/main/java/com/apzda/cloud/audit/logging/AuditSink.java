@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.logging;
+
+import com.apzda.cloud.audit.proto.AuditLog;
+import jakarta.annotation.Nonnull;
+
+import java.util.List;
+
+/**
+ * A destination of audit logs. Every {@code AuditSink} bean receives each built audit
+ * log once, on its own thread.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+public interface AuditSink {
+
+    /**
+     * @return the name of the sink, used to name its thread.
+     */
+    @Nonnull
+    String getName();
+
+    /**
+     * Write audit logs.
+     * @param logs the logs, the list must not be modified.
+     */
+    void write(@Nonnull List<AuditLog> logs);
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.logging;
+
+import com.apzda.cloud.audit.metrics.AuditClientMetrics;
+import com.apzda.cloud.audit.proto.AuditLog;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Fans audit logs out to the {@link AuditSink}s. Each sink has its own single thread
+ * executor with a bounded queue, so a slow sink does not hold up the others. Batches
+ * that do not fit in the queue of a sink are dropped for that sink.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Slf4j
+public class AuditSinks implements Consumer<List<AuditLog>>, DisposableBean {
+
+    private final List<Worker> workers = new ArrayList<>();
+
+    private final long shutdownTimeout;
+
+    public AuditSinks(List<? extends AuditSink> sinks, int queueCapacity, long shutdownTimeout) {
+        this(sinks, queueCapacity, shutdownTimeout, AuditClientMetrics.NOOP);
+    }
+
+    public AuditSinks(List<? extends AuditSink> sinks, int queueCapacity, long shutdownTimeout,
+            AuditClientMetrics metrics) {
+        this.shutdownTimeout = shutdownTimeout;
+        for (AuditSink sink : sinks) {
+            val worker = new Worker(sink, Math.max(1, queueCapacity), metrics);
+            metrics.gauge("sink.pending", "Batches waiting to be written by a sink", worker.executor,
+                    (executor) -> executor.getQueue().size(), "sink", sink.getName());
+            workers.add(worker);
+        }
+        if (sinks.isEmpty()) {
+            log.warn("No audit sink is enabled, audit logs will be discarded");
+        }
+    }
+
+    /**
+     * Hand the logs to every sink, they are written asynchronously.
+     */
+    @Override
+    public void accept(List<AuditLog> logs) {
+        if (logs.isEmpty()) {
+            return;
+        }
+        val copy = List.copyOf(logs);
+        for (Worker worker : workers) {
+            worker.submit(copy);
+        }
+    }
+
+    /**
+     * Write the logs to every sink on the caller thread.
+     */
+    public void write(List<AuditLog> logs) {
+        for (Worker worker : workers) {
+            worker.write(logs);
+        }
+    }
+
+    public List<AuditSink> getSinks() {
+        return workers.stream().map((worker) -> worker.sink).toList();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        for (Worker worker : workers) {
+            worker.executor.shutdown();
+        }
+        val deadline = System.currentTimeMillis() + shutdownTimeout;
+        for (Worker worker : workers) {
+            val wait = deadline - System.currentTimeMillis();
+            if (wait <= 0 || !worker.executor.awaitTermination(wait, TimeUnit.MILLISECONDS)) {
+                log.warn("Audit sink '{}' did not finish before shutdown, {} batches pending", worker.sink.getName(),
+                        worker.executor.getQueue().size());
+            }
+        }
+    }
+
+    private static final class Worker {
+
+        private final AuditSink sink;
+
+        private final ThreadPoolExecutor executor;
+
+        private final AuditClientMetrics metrics;
+
+        private final AtomicLong dropped = new AtomicLong();
+
+        Worker(AuditSink sink, int queueCapacity, AuditClientMetrics metrics) {
+            this.sink = sink;
+            this.metrics = metrics;
+            this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), (runnable) -> {
+                        val thread = new Thread(runnable, "audit-sink-" + sink.getName());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+
+        void submit(List<AuditLog> logs) {
+            try {
+                executor.execute(() -> write(logs));
+            }
+            catch (RejectedExecutionException e) {
+                count(logs, "dropped");
+                val before = dropped.getAndAdd(logs.size());
+                val count = before + logs.size();
+                if (before == 0 || before / 1000 != count / 1000) {
+                    log.warn("Audit sink '{}' is overloaded, {} audit logs dropped so far", sink.getName(), count);
+                }
+            }
+        }
+
+        void write(List<AuditLog> logs) {
+            val start = System.nanoTime();
+            try {
+                sink.write(logs);
+                count(logs, "success");
+            }
+            catch (Exception e) {
+                count(logs, "failure");
+                log.warn("Audit sink '{}' cannot write {} audit logs: {}", sink.getName(), logs.size(),
+                        e.getMessage());
+            }
+            finally {
+                metrics.send(sink.getName(), System.nanoTime() - start);
+            }
+        }
+
+        private void count(List<AuditLog> logs, String outcome) {
+            for (AuditLog auditLog : logs) {
+                metrics.event(sink.getName(), auditLog.getActivity(), auditLog.getLevel(), outcome);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.logging;
+
+/**
+ * What {@link AuditLogDispatcher} does with an event when its queue is full.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+public enum BackpressurePolicy {
+
+    /**
+     * Wait up to the block timeout for space in the queue, then drop the event.
+     */
+    BLOCK,
+    /**
+     * Drop the event.
+     */
+    DROP_NEWEST,
+    /**
+     * Drop the oldest queued event to make room for the event.
+     */
+    DROP_OLDEST,
+    /**
+     * Build and send the event on the caller thread.
+     */
+    CALLER_RUNS
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.logging;
+
+import com.apzda.cloud.audit.proto.AuditLog;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.CodedOutputStream;
+import jakarta.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Appends audit logs to a local file, one JSON document per line or length-delimited
+ * protobuf messages. The file is rolled when it reaches {@code maxFileSize} and only
+ * the latest {@code maxHistory} rolled files are kept.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Slf4j
+public class FileAuditSink implements AuditSink, DisposableBean {
+
+    private static final byte[] NEW_LINE = { '\n' };
+
+    private final Path directory;
+
+    private final Format format;
+
+    private final long maxFileSize;
+
+    private final int maxHistory;
+
+    private final ObjectMapper objectMapper;
+
+    private final Path file;
+
+    private OutputStream out;
+
+    private long size;
+
+    private int rolled;
+
+    public FileAuditSink(Path directory, Format format, long maxFileSize, int maxHistory,
+            ObjectMapper objectMapper) {
+        this.directory = directory;
+        this.format = format;
+        this.maxFileSize = maxFileSize;
+        this.maxHistory = Math.max(0, maxHistory);
+        this.objectMapper = objectMapper;
+        this.file = directory.resolve("audit" + format.extension);
+    }
+
+    @Nonnull
+    @Override
+    public String getName() {
+        return "file";
+    }
+
+    @Override
+    public synchronized void write(@Nonnull List<AuditLog> logs) {
+        try {
+            if (out == null) {
+                open();
+            }
+            for (AuditLog auditLog : logs) {
+                if (format == Format.NDJSON) {
+                    val bytes = objectMapper.writeValueAsBytes(auditLog);
+                    out.write(bytes);
+                    out.write(NEW_LINE);
+                    size += bytes.length + 1;
+                }
+                else {
+                    val bytes = auditLog.getSerializedSize();
+                    auditLog.writeDelimitedTo(out);
+                    size += CodedOutputStream.computeUInt32SizeNoTag(bytes) + bytes;
+                }
+                if (maxFileSize > 0 && size >= maxFileSize) {
+                    roll();
+                }
+            }
+            out.flush();
+        }
+        catch (IOException e) {
+            log.warn("Cannot write {} audit logs to {}: {}", logs.size(), file, e.getMessage());
+            close();
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        close();
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(directory);
+        out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND, StandardOpenOption.WRITE), 64 * 1024);
+        size = Files.size(file);
+    }
+
+    private void close() {
+        if (out != null) {
+            try {
+                out.close();
+            }
+            catch (IOException e) {
+                log.warn("Cannot close {}: {}", file, e.getMessage());
+            }
+            out = null;
+        }
+    }
+
+    private void roll() throws IOException {
+        close();
+        val suffix = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        val name = String.format("audit-%s-%03d%s", suffix, rolled++ % 1000, format.extension);
+        Files.move(file, directory.resolve(name));
+        try (Stream<Path> files = Files.list(directory)) {
+            val history = files.filter((path) -> {
+                val fileName = path.getFileName().toString();
+                return fileName.startsWith("audit-") && fileName.endsWith(format.extension);
+            }).sorted(Comparator.reverseOrder()).toList();
+            for (int i = maxHistory; i < history.size(); i++) {
+                Files.deleteIfExists(history.get(i));
+            }
+        }
+        open();
+    }
+
+    public enum Format {
+
+        NDJSON(".ndjson"), PROTOBUF(".pb");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+    }
+
+}
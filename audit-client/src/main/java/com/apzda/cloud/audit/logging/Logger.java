@@ -16,26 +16,28 @@
  */
 package com.apzda.cloud.audit.logging;
 
-import com.apzda.cloud.audit.aop.AuditContextHolder;
 import com.apzda.cloud.audit.proto.Arg;
 import com.apzda.cloud.audit.proto.AuditLog;
+import com.apzda.cloud.audit.proto.AuditLogBatch;
+import com.apzda.cloud.audit.proto.AuditLogBatchRes;
 import com.apzda.cloud.audit.proto.AuditService;
+import com.apzda.cloud.audit.proto.BatchItemRes;
 import com.apzda.cloud.gsvc.context.CurrentUserProvider;
 import com.apzda.cloud.gsvc.context.TenantManager;
 import com.apzda.cloud.gsvc.core.GsvcContextHolder;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.micrometer.observation.Observation;
-import io.micrometer.observation.ObservationRegistry;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.LoggerFactory;
 import org.springframework.lang.NonNull;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -53,13 +55,40 @@ public class Logger {
 
     private final AuditLog.Builder builder;
 
-    private final ObservationRegistry observationRegistry;
+    private final AuditLogDispatcher dispatcher;
+
+    private final ValueDiffer valueDiffer;
+
+    private final AuditSampler sampler;
+
+    private boolean sampled;
+
+    /**
+     * The values are serialized by {@link #log(boolean)} once the event is sampled.
+     */
+    private Object oldValue;
+
+    private Object newValue;
+
+    private boolean diff;
 
     public Logger(AuditService auditService, ObjectMapper objectMapper, @NonNull String activity,
-            ObservationRegistry observationRegistry) {
+            AuditLogDispatcher dispatcher) {
+        this(auditService, objectMapper, activity, dispatcher, ValueDiffer.FULL);
+    }
+
+    public Logger(AuditService auditService, ObjectMapper objectMapper, @NonNull String activity,
+            AuditLogDispatcher dispatcher, ValueDiffer valueDiffer) {
+        this(auditService, objectMapper, activity, dispatcher, valueDiffer, AuditSampler.ALWAYS);
+    }
+
+    public Logger(AuditService auditService, ObjectMapper objectMapper, @NonNull String activity,
+            AuditLogDispatcher dispatcher, ValueDiffer valueDiffer, AuditSampler sampler) {
         this.auditService = auditService;
         this.objectMapper = objectMapper;
-        this.observationRegistry = observationRegistry;
+        this.dispatcher = dispatcher;
+        this.valueDiffer = valueDiffer;
+        this.sampler = sampler;
         this.builder = AuditLog.newBuilder();
         val currentUser = CurrentUserProvider.getCurrentUser();
         val userId = Optional.ofNullable(currentUser.getUid()).orElse("0");
@@ -138,26 +167,19 @@ public class Logger {
     }
 
     public Logger replace(Object oldVal, Object newVal) {
-        return oldValue(oldVal).newValue(newVal);
+        this.oldValue = oldVal;
+        this.newValue = newVal;
+        this.diff = true;
+        return this;
     }
 
     public Logger oldValue(Object oldVal) {
-        if (oldVal != null) {
-            val str = AuditContextHolder.Context.toJsonString(oldVal);
-            if (str != null) {
-                this.builder.setOldJsonValue(str);
-            }
-        }
+        this.oldValue = oldVal;
         return this;
     }
 
     public Logger newValue(Object newVal) {
-        if (newVal != null) {
-            val str = AuditContextHolder.Context.toJsonString(newVal);
-            if (str != null) {
-                this.builder.setNewJsonValue(str);
-            }
-        }
+        this.newValue = newVal;
         return this;
     }
 
@@ -176,54 +198,123 @@ public class Logger {
         return this;
     }
 
+    /**
+     * Mark the event as already sampled by the caller, so {@link #log()} does not sample
+     * it again.
+     */
+    public Logger sampled() {
+        this.sampled = true;
+        return this;
+    }
+
     public void log(boolean async) {
+        if (!sampled && !sampler.sample(builder.getActivity(), builder.getLevel())) {
+            return;
+        }
+        if (diff) {
+            valueDiffer.replace(builder, oldValue, newValue);
+        }
+        else {
+            valueDiffer.getSerializer().setOldValue(builder, oldValue);
+            valueDiffer.getSerializer().setNewValue(builder, newValue);
+        }
+        val auditLog = builder.build();
         if (async) {
-            log();
+            dispatcher.dispatch(auditLog.getActivity(), auditLog.getLevel(), () -> auditLog);
         }
         else {
-            log(auditService, objectMapper, builder);
+            dispatcher.send(auditLog);
         }
     }
 
     public void log() {
-        val context = GsvcContextHolder.getContext();
-        val observation = Observation.createNotStarted("async", this.observationRegistry);
-        CompletableFuture.runAsync(() -> {
-            try {
-                context.restore();
-                observation.observe(() -> {
-                    log(auditService, objectMapper, builder);
-                });
-            }
-            finally {
-                GsvcContextHolder.clear();
-            }
-        });
+        log(true);
     }
 
     public static void log(AuditService auditService, ObjectMapper objectMapper, AuditLog.Builder builder) {
+        log(auditService, objectMapper, builder.build());
+    }
+
+    /**
+     * Send an audit log to the audit service.
+     * @return {@code false} if the log was not delivered and can be retried.
+     */
+    public static boolean log(AuditService auditService, ObjectMapper objectMapper, AuditLog req) {
         try {
-            val req = builder.build();
             val str = objectMapper.writeValueAsString(req);
             logger.info("Audit Event: {}", str);
+        }
+        catch (JsonProcessingException e) {
+            log.warn("Cannot serialize audit log: {} - {}", req, e.getMessage());
+        }
+        return send(auditService, req);
+    }
+
+    /**
+     * Send audit logs to the audit service in one batch.
+     * @return the logs that were not delivered and can be retried.
+     */
+    public static List<AuditLog> send(AuditService auditService, List<AuditLog> logs) {
+        if (logs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        else if (logs.size() == 1) {
+            return send(auditService, logs.get(0)) ? Collections.emptyList() : logs;
+        }
+        AuditLogBatchRes rest;
+        try {
+            rest = auditService.logBatch(AuditLogBatch.newBuilder().addAllLog(logs).build());
+        }
+        catch (Exception e) {
+            log.warn("Cannot send {} audit logs - {}", logs.size(), e.getMessage());
+            return logs;
+        }
+        val failed = new ArrayList<AuditLog>();
+        if (rest == null || (rest.getErrCode() != 0 && rest.getItemCount() == 0)) {
+            // the audit service may not support batch, send them one by one
+            log.debug("Audit service cannot accept batch: {}", rest == null ? "null return" : rest.getErrMsg());
+            for (AuditLog req : logs) {
+                if (!send(auditService, req)) {
+                    failed.add(req);
+                }
+            }
+            return failed;
+        }
+        for (BatchItemRes item : rest.getItemList()) {
+            if (item.getErrCode() != 0 && item.getIndex() < logs.size()) {
+                val req = logs.get(item.getIndex());
+                log.warn("Cannot save audit log: {} - {}", req, item.getErrMsg());
+                if (item.getErrCode() >= 500) {
+                    failed.add(req);
+                }
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Send an audit log to the audit service.
+     * @return {@code false} if the log was not delivered and can be retried.
+     */
+    public static boolean send(AuditService auditService, AuditLog req) {
+        try {
             val rest = auditService.log(req);
             if (rest == null) {
-                log.warn("Cannot save audit log: {} - null return", str);
+                log.warn("Cannot save audit log: {} - null return", req);
+            }
+            else if (rest.getErrCode() == 202) {
+                // accepted by the server, it is saved later
+                log.debug("Audit log is accepted: {} - {}", req, rest.getErrMsg());
             }
             else if (StringUtils.isNotBlank(rest.getErrMsg())) {
-                log.warn("Cannot save audit log: {} - {}", str, rest.getErrMsg());
+                log.warn("Cannot save audit log: {} - {}", req, rest.getErrMsg());
+                return rest.getErrCode() < 500;
             }
-        }
-        catch (JsonProcessingException e1) {
-            log.warn("Cannot serialize audit log: {} - {}", builder.build(), e1.getMessage());
+            return true;
         }
         catch (Exception e) {
-            try {
-                log.warn("Cannot send audit log: {} - {}", objectMapper.writeValueAsString(builder.build()),
-                        e.getMessage());
-            }
-            catch (JsonProcessingException ignored) {
-            }
+            log.warn("Cannot send audit log: {} - {}", req, e.getMessage());
+            return false;
         }
     }
 
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.logging;
+
+import com.apzda.cloud.audit.proto.AuditLog;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Writes audit logs as JSON to a slf4j logger. Nothing is serialized when the logger
+ * is not enabled for INFO.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Slf4j
+public class Slf4jAuditSink implements AuditSink {
+
+    private final org.slf4j.Logger logger;
+
+    private final ObjectMapper objectMapper;
+
+    public Slf4jAuditSink(String logger, ObjectMapper objectMapper) {
+        this.logger = LoggerFactory.getLogger(logger);
+        this.objectMapper = objectMapper;
+    }
+
+    @Nonnull
+    @Override
+    public String getName() {
+        return "slf4j";
+    }
+
+    @Override
+    public void write(@Nonnull List<AuditLog> logs) {
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
+        for (AuditLog req : logs) {
+            try {
+                logger.info("Audit Event: {}", objectMapper.writeValueAsString(req));
+            }
+            catch (JsonProcessingException e) {
+                log.warn("Cannot serialize audit log: {} - {}", req, e.getMessage());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.logging;
+
+import com.apzda.cloud.audit.autoconfig.AuditClientProperties;
+import com.apzda.cloud.audit.proto.AuditLog;
+import com.apzda.cloud.audit.utils.JsonPatchUtils;
+import com.apzda.cloud.gsvc.utils.ResponseUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Getter;
+import lombok.val;
+import org.springframework.beans.BeanUtils;
+
+import java.io.IOException;
+
+/**
+ * Sets the old and new values of an audit log. In diff mode only one base document and
+ * a JSON Patch (RFC 6902) to the other one are sent:
+ * <ul>
+ * <li>{@link Base#OLD}: the old value and the patch from the old to the new value.</li>
+ * <li>{@link Base#NEW}: the new value and the patch from the new to the old value.</li>
+ * </ul>
+ * Both values are sent when either of them is not an object or array, when either of
+ * them is truncated, when the patch is not smaller than the document it replaces, or
+ * when the patch would be truncated. The values are serialized within the max size
+ * first, and the trees are read back from these bytes, so a large value never becomes
+ * a tree.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+public class ValueDiffer {
+
+    public static final ValueDiffer FULL = new ValueDiffer(new AuditClientProperties.Diff(),
+            ValueSerializer.UNLIMITED);
+
+    private final boolean enabled;
+
+    private final Base base;
+
+    @Getter
+    private final ValueSerializer serializer;
+
+    public ValueDiffer(AuditClientProperties.Diff properties, ValueSerializer serializer) {
+        this.enabled = properties.isEnabled();
+        this.base = properties.getBase();
+        this.serializer = serializer;
+    }
+
+    public void replace(AuditLog.Builder builder, Object oldValue, Object newValue) {
+        val oldJson = serializer.serialize(oldValue);
+        val newJson = serializer.serialize(newValue);
+        if (enabled && isDocument(oldValue) && isDocument(newValue) && diff(builder, oldJson, newJson)) {
+            return;
+        }
+        serializer.setOldValue(builder, oldJson);
+        serializer.setNewValue(builder, newJson);
+    }
+
+    private boolean diff(AuditLog.Builder builder, ValueSerializer.Serialized oldJson,
+            ValueSerializer.Serialized newJson) {
+        if (oldJson == null || newJson == null || oldJson.truncated() || newJson.truncated()) {
+            return false;
+        }
+        val oldTree = readTree(oldJson);
+        val newTree = readTree(newJson);
+        if (oldTree == null || newTree == null || !oldTree.isContainerNode() || !newTree.isContainerNode()) {
+            return false;
+        }
+        val patch = serializer.serializeTree(
+                base == Base.NEW ? JsonPatchUtils.diff(newTree, oldTree) : JsonPatchUtils.diff(oldTree, newTree));
+        val replaced = base == Base.NEW ? oldJson : newJson;
+        if (patch == null || patch.truncated() || patch.bytes().size() >= replaced.bytes().size()) {
+            return false;
+        }
+        if (base == Base.NEW) {
+            builder.setNewJsonValueBytes(newJson.bytes());
+        }
+        else {
+            builder.setOldJsonValueBytes(oldJson.bytes());
+        }
+        builder.setValuePatchBytes(patch.bytes());
+        return true;
+    }
+
+    private static boolean isDocument(Object value) {
+        return value != null && !(value instanceof String) && !BeanUtils.isSimpleValueType(value.getClass());
+    }
+
+    private static JsonNode readTree(ValueSerializer.Serialized json) {
+        try {
+            return ResponseUtils.OBJECT_MAPPER.readTree(json.bytes().newInput());
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The value sent along with the patch. The patch alone cannot rebuild either value,
+     * so one of them is always sent.
+     */
+    public enum Base {
+
+        OLD, NEW
+
+    }
+
+}
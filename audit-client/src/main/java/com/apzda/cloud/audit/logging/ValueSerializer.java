@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.logging;
+
+import com.apzda.cloud.audit.aop.AuditContextHolder;
+import com.apzda.cloud.audit.metrics.AuditClientMetrics;
+import com.apzda.cloud.audit.proto.AuditLog;
+import com.apzda.cloud.gsvc.utils.ResponseUtils;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.protobuf.ByteString;
+import jakarta.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.BeanUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serializes audit values as JSON straight into protobuf {@link ByteString}s. The
+ * serialization stops as soon as {@code maxSize} bytes were written, the value is then
+ * cut at the last complete UTF-8 character and the log is marked as truncated.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Slf4j
+public class ValueSerializer {
+
+    public static final ValueSerializer UNLIMITED = new ValueSerializer(0, AuditClientMetrics.NOOP);
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final int maxSize;
+
+    private final AuditClientMetrics metrics;
+
+    /**
+     * @param maxSize max number of bytes of a value, {@code 0} or less means no limit.
+     */
+    public ValueSerializer(long maxSize) {
+        this(maxSize, AuditClientMetrics.NOOP);
+    }
+
+    public ValueSerializer(long maxSize, AuditClientMetrics metrics) {
+        this.maxSize = maxSize <= 0 ? Integer.MAX_VALUE : (int) Math.min(maxSize, Integer.MAX_VALUE);
+        this.metrics = metrics;
+    }
+
+    public void setOldValue(AuditLog.Builder builder, Object value) {
+        setOldValue(builder, serialize(value));
+    }
+
+    public void setNewValue(AuditLog.Builder builder, Object value) {
+        setNewValue(builder, serialize(value));
+    }
+
+    void setOldValue(AuditLog.Builder builder, Serialized serialized) {
+        if (serialized != null) {
+            builder.setOldJsonValueBytes(serialized.bytes());
+            if (serialized.truncated()) {
+                builder.setTruncated(true);
+            }
+        }
+    }
+
+    void setNewValue(AuditLog.Builder builder, Serialized serialized) {
+        if (serialized != null) {
+            builder.setNewJsonValueBytes(serialized.bytes());
+            if (serialized.truncated()) {
+                builder.setTruncated(true);
+            }
+        }
+    }
+
+    /**
+     * Serialize a value, it is sanitized first.
+     * @return the serialized value, or {@code null} if the value is null or cannot be
+     * serialized.
+     */
+    public Serialized serialize(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof String || BeanUtils.isSimpleValueType(value.getClass())) {
+            return limit(ByteString.copyFromUtf8(value.toString()));
+        }
+        return metrics.serialization(() -> write(AuditContextHolder.Context.sanitize(value)));
+    }
+
+    /**
+     * Serialize a JSON tree.
+     */
+    public Serialized serializeTree(JsonNode tree) {
+        return metrics.serialization(() -> write(tree));
+    }
+
+    private Serialized write(Object value) {
+        val output = ByteString.newOutput(INITIAL_CAPACITY);
+        val limited = new LimitedOutputStream(output, maxSize);
+        val mapper = ResponseUtils.OBJECT_MAPPER;
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(limited, JsonEncoding.UTF8)) {
+            mapper.writeValue(generator, value);
+        }
+        catch (IOException e) {
+            if (!limited.exceeded) {
+                log.warn("Cannot serialize value: {} - {}", value, e.getMessage());
+                return null;
+            }
+        }
+        if (limited.exceeded) {
+            return new Serialized(cut(output.toByteString()), true);
+        }
+        return new Serialized(output.toByteString(), false);
+    }
+
+    private Serialized limit(ByteString bytes) {
+        if (bytes.size() <= maxSize) {
+            return new Serialized(bytes, false);
+        }
+        return new Serialized(cut(bytes.substring(0, maxSize)), true);
+    }
+
+    /**
+     * Drop the trailing bytes of an incomplete UTF-8 character.
+     */
+    static ByteString cut(ByteString bytes) {
+        var end = bytes.size();
+        var start = end;
+        // find the first byte of the last character
+        while (start > 0 && (bytes.byteAt(start - 1) & 0xC0) == 0x80 && end - start < 3) {
+            start--;
+        }
+        if (start == 0) {
+            return bytes;
+        }
+        val lead = bytes.byteAt(start - 1) & 0xFF;
+        val length = lead < 0x80 ? 1 : lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : lead >= 0xC0 ? 2 : 1;
+        if (end - (start - 1) < length) {
+            end = start - 1;
+        }
+        return bytes.substring(0, end);
+    }
+
+    public record Serialized(@Nonnull ByteString bytes, boolean truncated) {
+    }
+
+    /**
+     * Writes up to {@code limit} bytes and then fails.
+     */
+    private static final class LimitedOutputStream extends OutputStream {
+
+        private final OutputStream out;
+
+        private final int limit;
+
+        private int written;
+
+        private boolean exceeded;
+
+        LimitedOutputStream(OutputStream out, int limit) {
+            this.out = out;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (written >= limit) {
+                exceed();
+            }
+            out.write(b);
+            written++;
+        }
+
+        @Override
+        public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+            val remaining = limit - written;
+            if (len > remaining) {
+                out.write(b, off, remaining);
+                written = limit;
+                exceed();
+            }
+            out.write(b, off, len);
+            written += len;
+        }
+
+        private void exceed() throws IOException {
+            exceeded = true;
+            throw new IOException("value is larger than " + limit + " bytes");
+        }
+
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import lombok.val;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Meters of the audit client, all of them are named {@code apzda.audit.client.*}.
+ * <ul>
+ * <li>{@code advice}: time the audit advice adds to the audited method on the caller
+ * thread.</li>
+ * <li>{@code serialization}: time to serialize an old or new value.</li>
+ * <li>{@code send}: time a sink takes to write a batch, tagged by sink.</li>
+ * <li>{@code events}: audit events by sink, activity, level and outcome
+ * ({@code success}, {@code failure} or {@code dropped}).</li>
+ * <li>{@code backpressure}: events that hit the dispatcher queue limit.</li>
+ * <li>{@code queue.size} and {@code sink.pending}: work waiting to be done.</li>
+ * </ul>
+ * To keep the number of time series bounded, only the first {@code maxActivities}
+ * activities get their own tag, the others are tagged {@code other}.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+public class AuditClientMetrics {
+
+    public static final String PREFIX = "apzda.audit.client.";
+
+    public static final String OTHER = "other";
+
+    /**
+     * Metrics that are not reported anywhere.
+     */
+    public static final AuditClientMetrics NOOP = new AuditClientMetrics(new CompositeMeterRegistry());
+
+    private static final Set<String> LEVELS = Set.of("trace", "debug", "info", "warn", "error");
+
+    private final MeterRegistry registry;
+
+    private final int maxActivities;
+
+    private final Map<String, String> activities = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> backpressure = new ConcurrentHashMap<>();
+
+    private final Map<EventKey, Counter> events = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> send = new ConcurrentHashMap<>();
+
+    private final Timer advice;
+
+    private final Timer serialization;
+
+    public AuditClientMetrics(MeterRegistry registry) {
+        this(registry, 100);
+    }
+
+    public AuditClientMetrics(MeterRegistry registry, int maxActivities) {
+        this.registry = registry;
+        this.maxActivities = maxActivities;
+        this.advice = Timer.builder(PREFIX + "advice")
+            .description("Time the audit advice adds to the audited method")
+            .register(registry);
+        this.serialization = Timer.builder(PREFIX + "serialization")
+            .description("Time to serialize an audit value")
+            .register(registry);
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    public void advice(long nanos) {
+        advice.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public <T> T serialization(Supplier<T> serializer) {
+        return serialization.record(serializer);
+    }
+
+    public void send(String sink, long nanos) {
+        send.computeIfAbsent(sink,
+                (key) -> Timer.builder(PREFIX + "send")
+                    .description("Time a sink takes to write a batch of audit logs")
+                    .tag("sink", key)
+                    .publishPercentileHistogram()
+                    .register(registry))
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Count an audit event.
+     * @param sink the sink, {@code dispatcher} for the events dropped before reaching
+     * any sink.
+     * @param outcome {@code success}, {@code failure} or {@code dropped}.
+     */
+    public void event(String sink, String activity, String level, String outcome) {
+        val key = new EventKey(sink, activity(activity), level(level), outcome);
+        events.computeIfAbsent(key,
+                (k) -> Counter.builder(PREFIX + "events")
+                    .description("Audit events by outcome")
+                    .tag("sink", k.sink())
+                    .tag("activity", k.activity())
+                    .tag("level", k.level())
+                    .tag("outcome", k.outcome())
+                    .register(registry))
+            .increment();
+    }
+
+    /**
+     * Count an outcome of the backpressure policy applied to an event.
+     * @param policy the policy.
+     * @param outcome what happened to the event.
+     */
+    public void backpressure(String policy, String outcome) {
+        backpressure.computeIfAbsent(policy + ':' + outcome,
+                (key) -> Counter.builder(PREFIX + "backpressure")
+                    .description("Audit events that hit the dispatcher queue limit")
+                    .tag("policy", policy)
+                    .tag("outcome", outcome)
+                    .register(registry))
+            .increment();
+    }
+
+    public <T> void gauge(String name, String description, T obj, ToDoubleFunction<T> value,
+            String... tags) {
+        Gauge.builder(PREFIX + name, obj, value).description(description).tags(tags).register(registry);
+    }
+
+    private String activity(String activity) {
+        if (activity == null || activity.isEmpty()) {
+            return OTHER;
+        }
+        val known = activities.get(activity);
+        if (known != null) {
+            return known;
+        }
+        if (activities.size() >= maxActivities) {
+            return OTHER;
+        }
+        val existing = activities.putIfAbsent(activity, activity);
+        return existing != null ? existing : activity;
+    }
+
+    private static String level(String level) {
+        return level != null && LEVELS.contains(level) ? level : OTHER;
+    }
+
+    private record EventKey(String sink, String activity, String level, String outcome) {
+    }
+
+}
@@ -0,0 +1,481 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.spool;
+
+import com.apzda.cloud.audit.proto.AuditLog;
+import com.google.protobuf.InvalidProtocolBufferException;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, segmented, memory-mapped store of audit logs that could not be sent.
+ * <p>
+ * Each segment is a fixed size file of records laid out as {@code [length][crc32][protobuf
+ * bytes]}. A zero length marks the end of the written data. The read position is kept
+ * in a small checkpoint file, segments behind it are deleted. On start-up the last
+ * segment is scanned and everything after the last valid record is discarded, so a
+ * torn write never turns into a bogus record.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Slf4j
+public class AuditSpool implements Closeable {
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int CHECKPOINT_SIZE = 16;
+
+    private static final String SEGMENT_SUFFIX = ".spool";
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final int maxSegments;
+
+    private final FsyncPolicy fsyncPolicy;
+
+    private final long fsyncInterval;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    private final FileChannel lockChannel;
+
+    private final FileLock lock;
+
+    private final MappedByteBuffer checkpoint;
+
+    private final ScheduledExecutorService syncer;
+
+    /**
+     * The position after each log returned by the last {@link #peek(int)}.
+     */
+    private final List<long[]> pendingPositions = new ArrayList<>();
+
+    private Segment writeSegment;
+
+    private long readSeq;
+
+    private int readOffset;
+
+    private long pendingSeq;
+
+    private int pendingOffset;
+
+    private long lastSync;
+
+    private boolean dirty;
+
+    public AuditSpool(Path directory, int segmentSize, long maxSize, FsyncPolicy fsyncPolicy, Duration fsyncInterval)
+            throws IOException {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize is too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        // the write segment is only deleted once a log of the next one is read, so a
+        // single segment could never roll again
+        this.maxSegments = (int) Math.max(2, maxSize / segmentSize);
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncInterval = fsyncInterval.toMillis();
+        Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve("spool.lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        this.lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Spool directory is used by another process: " + directory);
+        }
+        this.checkpoint = map(directory.resolve("checkpoint"), CHECKPOINT_SIZE);
+        recover();
+        if (fsyncPolicy == FsyncPolicy.INTERVAL && this.fsyncInterval > 0) {
+            // the last appends before a quiet period are forced too
+            this.syncer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+                val thread = new Thread(runnable, "audit-spool-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.syncer.scheduleWithFixedDelay(this::sync, this.fsyncInterval, this.fsyncInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+        else {
+            this.syncer = null;
+        }
+    }
+
+    /**
+     * Append logs to the spool.
+     * @return the number of logs appended, it is less than the size of {@code logs} when
+     * the spool is full or a log is larger than a segment.
+     */
+    public synchronized int append(List<AuditLog> logs) {
+        var count = 0;
+        for (AuditLog auditLog : logs) {
+            val data = auditLog.toByteArray();
+            if (HEADER_SIZE + data.length > segmentSize) {
+                log.warn("Audit log is too large to be spooled: {} bytes", data.length);
+                continue;
+            }
+            if (!write(data)) {
+                break;
+            }
+            count++;
+        }
+        if (count > 0) {
+            dirty = true;
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                sync();
+            }
+            else if (fsyncPolicy == FsyncPolicy.INTERVAL
+                    && System.currentTimeMillis() - lastSync >= fsyncInterval) {
+                sync();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Read up to {@code max} logs from the read position without consuming them. Call
+     * {@link #commit()} once they are handled, or {@link #commit(int)} once the first of
+     * them are.
+     */
+    public synchronized List<AuditLog> peek(int max) {
+        val logs = new ArrayList<AuditLog>(max);
+        pendingPositions.clear();
+        var seq = readSeq;
+        var offset = readOffset;
+        while (logs.size() < max) {
+            val segment = segments.get(seq);
+            if (segment == null) {
+                break;
+            }
+            if (segment == writeSegment && offset >= segment.position) {
+                break;
+            }
+            val buffer = segment.buffer();
+            val length = recordLength(buffer, offset);
+            if (length < 0) {
+                // end of this segment
+                val next = segments.higherKey(seq);
+                if (next == null) {
+                    break;
+                }
+                seq = next;
+                offset = 0;
+                continue;
+            }
+            val data = new byte[length];
+            buffer.get(offset + HEADER_SIZE, data);
+            offset += HEADER_SIZE + length;
+            try {
+                logs.add(AuditLog.parseFrom(data));
+                pendingPositions.add(new long[] { seq, offset });
+            }
+            catch (InvalidProtocolBufferException e) {
+                log.warn("Skip broken audit log in spool segment {}: {}", seq, e.getMessage());
+            }
+        }
+        pendingSeq = seq;
+        pendingOffset = offset;
+        return logs;
+    }
+
+    /**
+     * Consume the logs returned by the last {@link #peek(int)}.
+     */
+    public synchronized void commit() {
+        commit(pendingSeq, pendingOffset);
+    }
+
+    /**
+     * Consume the first {@code count} logs returned by the last {@link #peek(int)}, the
+     * others are read again by the next one.
+     */
+    public synchronized void commit(int count) {
+        if (count >= pendingPositions.size()) {
+            commit();
+        }
+        else if (count > 0) {
+            val position = pendingPositions.get(count - 1);
+            commit(position[0], (int) position[1]);
+        }
+    }
+
+    private void commit(long seq, int offset) {
+        if (seq < readSeq || (seq == readSeq && offset <= readOffset)) {
+            return;
+        }
+        readSeq = seq;
+        readOffset = offset;
+        writeCheckpoint();
+        while (!segments.isEmpty() && segments.firstKey() < readSeq) {
+            delete(segments.pollFirstEntry().getValue());
+        }
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+            checkpoint.force();
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return readSeq == writeSegment.seq && readOffset >= writeSegment.position;
+    }
+
+    /**
+     * @return the number of bytes occupied by the segments.
+     */
+    public synchronized long getSize() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    public synchronized void sync() {
+        if (dirty) {
+            writeSegment.buffer().force();
+            dirty = false;
+        }
+        lastSync = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        sync();
+        writeCheckpoint();
+        checkpoint.force();
+        lock.release();
+        lockChannel.close();
+    }
+
+    private boolean write(byte[] data) {
+        val size = HEADER_SIZE + data.length;
+        if (size > segmentSize) {
+            return false;
+        }
+        if (writeSegment.position + size > segmentSize && !roll()) {
+            return false;
+        }
+        val buffer = writeSegment.buffer();
+        val position = writeSegment.position;
+        val crc = new CRC32();
+        crc.update(data);
+        buffer.put(position + HEADER_SIZE, data);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        // the length is written last, a record is not visible until it is complete.
+        buffer.putInt(position, data.length);
+        writeSegment.position += size;
+        return true;
+    }
+
+    private boolean roll() {
+        if (segments.size() >= maxSegments) {
+            return false;
+        }
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+            writeSegment.buffer().force();
+        }
+        try {
+            val segment = new Segment(writeSegment.seq + 1);
+            segment.buffer();
+            segments.put(segment.seq, segment);
+            writeSegment = segment;
+            return true;
+        }
+        catch (Exception e) {
+            log.error("Cannot create spool segment: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private void recover() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach((file) -> {
+                val name = file.getFileName().toString();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        val seq = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                        segments.put(seq, new Segment(seq));
+                    }
+                    catch (NumberFormatException e) {
+                        log.warn("Ignore unknown file in spool directory: {}", file);
+                    }
+                }
+            });
+        }
+        if (segments.isEmpty()) {
+            val segment = new Segment(1);
+            segments.put(segment.seq, segment);
+        }
+        writeSegment = segments.lastEntry().getValue();
+        writeSegment.position = scan(writeSegment);
+
+        readSeq = checkpoint.getLong(0);
+        readOffset = checkpoint.getInt(8);
+        if (checkpoint.getInt(12) != checkpointCrc(readSeq, readOffset)) {
+            readSeq = 0;
+            readOffset = 0;
+        }
+        if (!segments.containsKey(readSeq)) {
+            val next = segments.ceilingKey(readSeq);
+            readSeq = next != null ? next : writeSegment.seq;
+            readOffset = 0;
+        }
+        while (segments.firstKey() < readSeq) {
+            delete(segments.pollFirstEntry().getValue());
+        }
+        if (!isEmpty()) {
+            log.info("Audit spool recovered, {} segments to be replayed", segments.size());
+        }
+    }
+
+    private int scan(Segment segment) throws IOException {
+        val buffer = segment.buffer();
+        var offset = 0;
+        while (true) {
+            val length = recordLength(buffer, offset);
+            if (length < 0) {
+                break;
+            }
+            offset += HEADER_SIZE + length;
+        }
+        if (offset + HEADER_SIZE <= segmentSize && buffer.getLong(offset) != 0) {
+            log.warn("Audit spool segment {} is corrupted at {}, the tail is discarded", segment.seq, offset);
+            for (int i = offset; i < segmentSize; i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.force();
+        }
+        return offset;
+    }
+
+    /**
+     * @return the payload length of a valid record at {@code offset}, or -1 if there is
+     * no valid record there.
+     */
+    private int recordLength(MappedByteBuffer buffer, int offset) {
+        if (offset + HEADER_SIZE > segmentSize) {
+            return -1;
+        }
+        val length = buffer.getInt(offset);
+        if (length <= 0 || length > segmentSize - HEADER_SIZE - offset) {
+            return -1;
+        }
+        val crc = new CRC32();
+        crc.update(buffer.duplicate().position(offset + HEADER_SIZE).limit(offset + HEADER_SIZE + length));
+        if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+            return -1;
+        }
+        return length;
+    }
+
+    private void writeCheckpoint() {
+        checkpoint.putLong(0, readSeq);
+        checkpoint.putInt(8, readOffset);
+        checkpoint.putInt(12, checkpointCrc(readSeq, readOffset));
+    }
+
+    private static int checkpointCrc(long seq, int offset) {
+        val crc = new CRC32();
+        crc.update(ByteBuffer.allocate(12).putLong(seq).putInt(offset).flip());
+        return (int) crc.getValue();
+    }
+
+    private void delete(Segment segment) {
+        try {
+            Files.deleteIfExists(segment.path);
+        }
+        catch (IOException e) {
+            log.warn("Cannot delete spool segment {}: {}", segment.path, e.getMessage());
+        }
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    public enum FsyncPolicy {
+
+        /**
+         * Force the segment to disk after every append.
+         */
+        ALWAYS,
+        /**
+         * Force the segment to disk at most once per interval on append, and in the
+         * background once per interval when appends were not forced yet.
+         */
+        INTERVAL,
+        /**
+         * Leave it to the operating system.
+         */
+        NEVER
+
+    }
+
+    private final class Segment {
+
+        private final long seq;
+
+        private final Path path;
+
+        private MappedByteBuffer buffer;
+
+        private int position;
+
+        Segment(long seq) {
+            this.seq = seq;
+            this.path = directory.resolve(String.format("%020d%s", seq, SEGMENT_SUFFIX));
+        }
+
+        MappedByteBuffer buffer() {
+            if (buffer == null) {
+                try {
+                    buffer = map(path, segmentSize);
+                }
+                catch (IOException e) {
+                    throw new IllegalStateException("Cannot map spool segment " + path, e);
+                }
+            }
+            return buffer;
+        }
+
+    }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes and applies <a href="https://www.rfc-editor.org/rfc/rfc6902">RFC 6902</a> JSON
+ * Patches.
+ * <p>
+ * The diff is not minimal: objects are compared member by member, arrays element by
+ * element and the extra elements of the longer array are removed or added at its end.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+public abstract class JsonPatchUtils {
+
+    private static final JsonNodeFactory factory = JsonNodeFactory.instance;
+
+    /**
+     * Compute the patch that turns {@code source} into {@code target}.
+     * @param source the source document.
+     * @param target the target document.
+     * @return the patch, empty if both are equal.
+     */
+    public static ArrayNode diff(JsonNode source, JsonNode target) {
+        val patch = factory.arrayNode();
+        diff(patch, "", source, target);
+        return patch;
+    }
+
+    /**
+     * Apply the patch to a copy of the {@code source} document.
+     * @param source the source document, it is not modified.
+     * @param patch the patch.
+     * @return the patched document.
+     * @throws IllegalArgumentException if the patch is invalid or cannot be applied.
+     */
+    public static JsonNode apply(JsonNode source, JsonNode patch) {
+        if (patch == null || !patch.isArray()) {
+            throw new IllegalArgumentException("patch must be an array");
+        }
+        JsonNode doc = source == null ? factory.nullNode() : source.deepCopy();
+        for (JsonNode operation : patch) {
+            val op = operation.path("op").asText();
+            val path = pointer(operation, "path");
+            doc = switch (op) {
+                case "add" -> add(doc, path, value(operation));
+                case "remove" -> remove(doc, path);
+                case "replace" -> add(remove(doc, path), path, value(operation));
+                case "move" -> {
+                    val from = pointer(operation, "from");
+                    val node = get(doc, from);
+                    yield add(remove(doc, from), path, node);
+                }
+                case "copy" -> add(doc, path, get(doc, pointer(operation, "from")).deepCopy());
+                case "test" -> {
+                    if (!get(doc, path).equals(value(operation))) {
+                        throw new IllegalArgumentException("test failed at " + operation.path("path").asText());
+                    }
+                    yield doc;
+                }
+                default -> throw new IllegalArgumentException("unknown operation: " + op);
+            };
+        }
+        return doc;
+    }
+
+    private static void diff(ArrayNode patch, String path, JsonNode source, JsonNode target) {
+        if (source.equals(target)) {
+            return;
+        }
+        if (source.isObject() && target.isObject()) {
+            source.fieldNames().forEachRemaining((name) -> {
+                if (!target.has(name)) {
+                    patch.add(operation("remove", path + "/" + escape(name)));
+                }
+            });
+            target.fields().forEachRemaining((field) -> {
+                val fieldPath = path + "/" + escape(field.getKey());
+                val value = source.get(field.getKey());
+                if (value == null) {
+                    patch.add(operation("add", fieldPath).set("value", field.getValue()));
+                }
+                else {
+                    diff(patch, fieldPath, value, field.getValue());
+                }
+            });
+        }
+        else if (source.isArray() && target.isArray()) {
+            val common = Math.min(source.size(), target.size());
+            for (int i = 0; i < common; i++) {
+                diff(patch, path + "/" + i, source.get(i), target.get(i));
+            }
+            for (int i = source.size() - 1; i >= common; i--) {
+                patch.add(operation("remove", path + "/" + i));
+            }
+            for (int i = common; i < target.size(); i++) {
+                patch.add(operation("add", path + "/" + i).set("value", target.get(i)));
+            }
+        }
+        else {
+            patch.add(operation("replace", path).set("value", target));
+        }
+    }
+
+    private static ObjectNode operation(String op, String path) {
+        return factory.objectNode().put("op", op).put("path", path);
+    }
+
+    private static String escape(String name) {
+        return name.replace("~", "~0").replace("/", "~1");
+    }
+
+    private static JsonNode value(JsonNode operation) {
+        val value = operation.get("value");
+        if (value == null) {
+            throw new IllegalArgumentException("value is required: " + operation);
+        }
+        return value;
+    }
+
+    private static List<String> pointer(JsonNode operation, String member) {
+        val node = operation.get(member);
+        if (node == null || !node.isTextual()) {
+            throw new IllegalArgumentException(member + " is required: " + operation);
+        }
+        val pointer = node.asText();
+        val tokens = new ArrayList<String>();
+        if (pointer.isEmpty()) {
+            return tokens;
+        }
+        if (pointer.charAt(0) != '/') {
+            throw new IllegalArgumentException("invalid pointer: " + pointer);
+        }
+        for (String token : pointer.substring(1).split("/", -1)) {
+            tokens.add(token.replace("~1", "/").replace("~0", "~"));
+        }
+        return tokens;
+    }
+
+    private static JsonNode get(JsonNode doc, List<String> path) {
+        var node = doc;
+        for (String token : path) {
+            node = child(node, token);
+            if (node == null) {
+                throw new IllegalArgumentException("path not found: /" + String.join("/", path));
+            }
+        }
+        return node;
+    }
+
+    private static JsonNode child(JsonNode node, String token) {
+        if (node.isObject()) {
+            return node.get(token);
+        }
+        if (node.isArray()) {
+            return node.get(index(token, node.size() - 1));
+        }
+        return null;
+    }
+
+    private static JsonNode add(JsonNode doc, List<String> path, JsonNode value) {
+        if (path.isEmpty()) {
+            return value;
+        }
+        val parent = get(doc, path.subList(0, path.size() - 1));
+        val token = path.get(path.size() - 1);
+        if (parent instanceof ObjectNode object) {
+            object.set(token, value);
+        }
+        else if (parent instanceof ArrayNode array) {
+            if ("-".equals(token)) {
+                array.add(value);
+            }
+            else {
+                array.insert(index(token, array.size()), value);
+            }
+        }
+        else {
+            throw new IllegalArgumentException("cannot add to a value: /" + String.join("/", path));
+        }
+        return doc;
+    }
+
+    private static JsonNode remove(JsonNode doc, List<String> path) {
+        if (path.isEmpty()) {
+            return factory.nullNode();
+        }
+        val parent = get(doc, path.subList(0, path.size() - 1));
+        val token = path.get(path.size() - 1);
+        if (parent instanceof ObjectNode object && object.has(token)) {
+            object.remove(token);
+        }
+        else if (parent instanceof ArrayNode array) {
+            array.remove(index(token, array.size() - 1));
+        }
+        else {
+            throw new IllegalArgumentException("path not found: /" + String.join("/", path));
+        }
+        return doc;
+    }
+
+    private static int index(String token, int max) {
+        try {
+            val index = Integer.parseInt(token);
+            if (index >= 0 && index <= max) {
+                return index;
+            }
+        }
+        catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("invalid array index: " + token);
+    }
+
+}
@@ -0,0 +1,125 @@
+package cn.apzda.cloud.audit.aop;
+
+import com.apzda.cloud.audit.ValueSanitizer;
+import com.apzda.cloud.audit.aop.ValueSanitizers;
+import jakarta.annotation.Nonnull;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+class ValueSanitizersTest {
+
+    @Test
+    void only_sanitizers_of_the_value_type_should_be_asked() {
+        // given
+        val asked = new ArrayList<String>();
+        val sanitizers = ValueSanitizers.of(List.of(new MapSanitizer(asked), new ListSanitizer(asked)));
+        // when
+        val value = sanitizers.sanitize(new HashMap<>(Map.of("phone", "13800138000")));
+        sanitizers.sanitize(new HashMap<>());
+        // then
+        assertThat(value).isEqualTo(Map.of("phone", "138****8000"));
+        assertThat(asked).containsExactly("map", "map");
+    }
+
+    @Test
+    void sanitizers_should_follow_a_replaced_value() {
+        // given
+        val asked = new ArrayList<String>();
+        val sanitizers = ValueSanitizers.of(List.of(new ToListSanitizer(), new ListSanitizer(asked)));
+        // when
+        val value = sanitizers.sanitize(new HashMap<>(Map.of("a", "b")));
+        // then
+        assertThat(value).isEqualTo(List.of("sanitized"));
+        assertThat(asked).containsExactly("list");
+    }
+
+    @Test
+    void untyped_sanitizer_should_be_asked_for_any_value() {
+        // given
+        val sanitizer = new ValueSanitizer<Object>() {
+            @Nonnull
+            @Override
+            public Object doSanitize(@Nonnull Object value) {
+                return "masked";
+            }
+
+            @Override
+            public boolean support(Object value) {
+                return true;
+            }
+        };
+        // when
+        val value = ValueSanitizers.of(List.of(sanitizer)).sanitize(new Object());
+        // then
+        assertThat(sanitizer.supportedTypes()).isEmpty();
+        assertThat(value).isEqualTo("masked");
+    }
+
+    record MapSanitizer(List<String> asked) implements ValueSanitizer<Map<String, Object>> {
+
+        @Nonnull
+        @Override
+        public Map<String, Object> doSanitize(@Nonnull Map<String, Object> value) {
+            value.computeIfPresent("phone",
+                    (key, phone) -> phone.toString().substring(0, 3) + "****" + phone.toString().substring(7));
+            return value;
+        }
+
+        @Override
+        public boolean support(Object value) {
+            asked.add("map");
+            return true;
+        }
+
+    }
+
+    record ListSanitizer(List<String> asked) implements ValueSanitizer<List<String>> {
+
+        @Nonnull
+        @Override
+        public List<String> doSanitize(@Nonnull List<String> value) {
+            return value;
+        }
+
+        @Override
+        public boolean support(Object value) {
+            asked.add("list");
+            return true;
+        }
+
+    }
+
+    static class ToListSanitizer implements ValueSanitizer<Map<String, Object>> {
+
+        @Nonnull
+        @Override
+        public Map<String, Object> doSanitize(@Nonnull Map<String, Object> value) {
+            return value;
+        }
+
+        @Nonnull
+        @Override
+        public Object sanitize(@Nonnull Object value) {
+            return List.of("sanitized");
+        }
+
+        @Override
+        public boolean support(Object value) {
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,42 @@
+package cn.apzda.cloud.audit.logging;
+
+import com.apzda.cloud.audit.logging.AuditCoalescer;
+import com.apzda.cloud.audit.proto.AuditLog;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+class AuditCoalescerTest {
+
+    @Test
+    void identical_events_should_be_merged() throws Exception {
+        // given
+        val sent = new CopyOnWriteArrayList<AuditLog>();
+        val coalescer = new AuditCoalescer(sent::addAll, 60_000, 100);
+        val login = AuditLog.newBuilder().setActivity("login").setUserid("1").setLevel("warn").setMessage("failed");
+        val withValue = login.clone().setNewJsonValue("{}").setTimestamp(5).build();
+        // when
+        coalescer.accept(List.of(login.setTimestamp(3).build(), login.setTimestamp(1).build(), withValue));
+        coalescer.accept(List.of(login.setTimestamp(9).build(), login.setUserid("2").setTimestamp(4).build()));
+        coalescer.destroy();
+        // then
+        assertThat(sent).hasSize(3);
+        assertThat(sent.get(0)).isEqualTo(withValue);
+        assertThat(sent.get(1).getUserid()).isEqualTo("1");
+        assertThat(sent.get(1).getRepeatCount()).isEqualTo(3);
+        assertThat(sent.get(1).getTimestamp()).isEqualTo(1);
+        assertThat(sent.get(1).getLastTimestamp()).isEqualTo(9);
+        assertThat(sent.get(2).getUserid()).isEqualTo("2");
+        assertThat(sent.get(2).hasRepeatCount()).isFalse();
+    }
+
+}
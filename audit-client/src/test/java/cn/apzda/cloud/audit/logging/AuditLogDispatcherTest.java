@@ -0,0 +1,154 @@
+package cn.apzda.cloud.audit.logging;
+
+import com.apzda.cloud.audit.autoconfig.AuditClientProperties;
+import com.apzda.cloud.audit.logging.AuditLogDispatcher;
+import com.apzda.cloud.audit.logging.BackpressurePolicy;
+import com.apzda.cloud.audit.metrics.AuditClientMetrics;
+import com.apzda.cloud.audit.proto.AuditLog;
+import com.apzda.cloud.gsvc.core.GsvcContextHolder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+class AuditLogDispatcherTest {
+
+    @Test
+    void events_should_be_sent_in_batches() throws Exception {
+        // given
+        val batches = new CopyOnWriteArrayList<List<AuditLog>>();
+        val config = new AuditClientProperties.Dispatcher();
+        config.setBatchSize(10);
+        config.setLinger(Duration.ofMillis(200));
+        val dispatcher = new AuditLogDispatcher(config, ObservationRegistry.NOOP,
+                (batch) -> batches.add(List.copyOf(batch)));
+        dispatcher.afterPropertiesSet();
+        // when
+        for (int i = 0; i < 25; i++) {
+            val log = AuditLog.newBuilder().setActivity("test").setUserid("1").setTimestamp(i).build();
+            assertThat(dispatcher.dispatch(() -> log)).isTrue();
+        }
+        TimeUnit.MILLISECONDS.sleep(500);
+        dispatcher.destroy();
+        // then
+        assertThat(batches.stream().mapToInt(List::size).sum()).isEqualTo(25);
+        assertThat(batches).allMatch((batch) -> batch.size() <= 10);
+    }
+
+    @Test
+    void events_should_be_dropped_when_queue_is_full() {
+        // given
+        val config = new AuditClientProperties.Dispatcher();
+        config.setQueueCapacity(2);
+        val dispatcher = new AuditLogDispatcher(config, ObservationRegistry.NOOP, (batch) -> {
+        });
+        val log = AuditLog.newBuilder().setActivity("test").setUserid("1").build();
+        // when
+        dispatcher.dispatch(() -> log);
+        dispatcher.dispatch(() -> log);
+        val accepted = dispatcher.dispatch(() -> log);
+        // then
+        assertThat(accepted).isFalse();
+        assertThat(dispatcher.getDropped()).isEqualTo(1);
+    }
+
+    @Test
+    void backpressure_policy_should_be_chosen_by_activity_and_level() {
+        // given
+        val registry = new SimpleMeterRegistry();
+        val sent = new CopyOnWriteArrayList<AuditLog>();
+        val config = new AuditClientProperties.Dispatcher();
+        config.setQueueCapacity(1);
+        config.getLevelBackpressure().put("error", BackpressurePolicy.CALLER_RUNS);
+        config.getActivityBackpressure().put("login", BackpressurePolicy.DROP_OLDEST);
+        val dispatcher = new AuditLogDispatcher(config, ObservationRegistry.NOOP, (batch) -> {
+        }, sent::addAll, new AuditClientMetrics(registry));
+        val log = AuditLog.newBuilder().setActivity("test").setUserid("1").build();
+        // when
+        dispatcher.dispatch(() -> log);
+        val dropped = dispatcher.dispatch("test", "info", () -> log);
+        val callerRuns = dispatcher.dispatch("test", "error", () -> log);
+        val evicted = dispatcher.dispatch("login", "error", () -> log);
+        // then
+        assertThat(dropped).isFalse();
+        assertThat(callerRuns).isTrue();
+        assertThat(evicted).isTrue();
+        assertThat(sent).hasSize(1);
+        assertThat(dispatcher.getPending()).isEqualTo(1);
+        assertThat(registry.get("apzda.audit.client.backpressure").tag("outcome", "dropped").counter().count())
+            .isEqualTo(1);
+        assertThat(registry.get("apzda.audit.client.backpressure").tag("outcome", "caller_runs").counter().count())
+            .isEqualTo(1);
+        assertThat(registry.get("apzda.audit.client.backpressure").tag("outcome", "evicted").counter().count())
+            .isEqualTo(1);
+    }
+
+    @Test
+    void evicted_event_should_be_counted_as_dropped() {
+        // given
+        val registry = new SimpleMeterRegistry();
+        val config = new AuditClientProperties.Dispatcher();
+        config.setQueueCapacity(1);
+        config.setBackpressure(BackpressurePolicy.DROP_OLDEST);
+        val dispatcher = new AuditLogDispatcher(config, ObservationRegistry.NOOP, (batch) -> {
+        }, (batch) -> {
+        }, new AuditClientMetrics(registry));
+        val log = AuditLog.newBuilder().setActivity("test").setUserid("1").build();
+        // when
+        dispatcher.dispatch("order", "info", () -> log);
+        dispatcher.dispatch("login", "info", () -> log);
+        // then
+        assertThat(registry.get("apzda.audit.client.events")
+            .tag("activity", "order")
+            .tag("outcome", "dropped")
+            .counter()
+            .count()).isEqualTo(1);
+    }
+
+    @Test
+    void caller_context_should_survive_caller_runs() {
+        // given
+        val sent = new CopyOnWriteArrayList<AuditLog>();
+        val config = new AuditClientProperties.Dispatcher();
+        config.setQueueCapacity(1);
+        config.setBackpressure(BackpressurePolicy.CALLER_RUNS);
+        val dispatcher = new AuditLogDispatcher(config, ObservationRegistry.NOOP, (batch) -> {
+        }, sent::addAll);
+        val request = new MockHttpServletRequest();
+        request.setRemoteAddr("10.1.2.3");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        val log = AuditLog.newBuilder().setActivity("test").setUserid("1").build();
+        try {
+            val ip = GsvcContextHolder.getRemoteIp();
+            // when
+            dispatcher.dispatch(() -> log);
+            dispatcher.dispatch(() -> {
+                // what an event built for a drain thread does when it is done
+                GsvcContextHolder.clear();
+                return log;
+            });
+            // then
+            assertThat(sent).hasSize(1);
+            assertThat(GsvcContextHolder.getRemoteIp()).isEqualTo(ip);
+        }
+        finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+    }
+
+}
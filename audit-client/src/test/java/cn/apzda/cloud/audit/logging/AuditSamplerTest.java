@@ -0,0 +1,71 @@
+package cn.apzda.cloud.audit.logging;
+
+import com.apzda.cloud.audit.autoconfig.AuditClientProperties;
+import com.apzda.cloud.audit.logging.AuditSampler;
+import com.apzda.cloud.audit.metrics.AuditClientMetrics;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+class AuditSamplerTest {
+
+    @Test
+    void first_matching_rule_should_apply_and_errors_bypass_it() {
+        // given
+        val sampling = sampling(rule("view-*", true, null, null), rule("*", false, null, 2.0));
+        val sampler = new AuditSampler(() -> sampling, AuditClientMetrics.NOOP);
+        // when
+        val view = sampler.sample("view-order", "info");
+        val error = sampler.sample("view-order", "error");
+        val first = sampler.sample("login", "info");
+        val second = sampler.sample("login", "info");
+        val third = sampler.sample("login", "info");
+        // then
+        assertThat(view).isFalse();
+        assertThat(error).isTrue();
+        assertThat(first).isTrue();
+        assertThat(second).isTrue();
+        assertThat(third).isFalse();
+    }
+
+    @Test
+    void rules_should_be_reloaded() {
+        // given
+        val current = new AtomicReference<>(sampling(rule("view-*", true, null, null)));
+        val sampler = new AuditSampler(current::get, AuditClientMetrics.NOOP);
+        assertThat(sampler.sample("view-order", "info")).isFalse();
+        // when
+        current.set(sampling(rule("view-*", false, 1.0, null)));
+        sampler.reload();
+        // then
+        assertThat(sampler.sample("view-order", "info")).isTrue();
+    }
+
+    private static AuditClientProperties.Sampling sampling(AuditClientProperties.SamplingRule... rules) {
+        val sampling = new AuditClientProperties.Sampling();
+        sampling.setReloadInterval(Duration.ZERO);
+        sampling.getRules().addAll(List.of(rules));
+        return sampling;
+    }
+
+    private static AuditClientProperties.SamplingRule rule(String activity, boolean suppress, Double ratio,
+            Double rate) {
+        val rule = new AuditClientProperties.SamplingRule();
+        rule.setActivity(activity);
+        rule.setSuppress(suppress);
+        rule.setRatio(ratio);
+        rule.setRate(rate);
+        return rule;
+    }
+
+}
@@ -0,0 +1,80 @@
+package cn.apzda.cloud.audit.logging;
+
+import com.apzda.cloud.audit.logging.FileAuditSink;
+import com.apzda.cloud.audit.proto.AuditLog;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+class FileAuditSinkTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void logs_should_be_appended_and_read_back() throws Exception {
+        // given
+        val sink = new FileAuditSink(directory, FileAuditSink.Format.PROTOBUF, 0, 1, new ObjectMapper());
+        // when
+        sink.write(logs(0, 10));
+        sink.write(logs(10, 20));
+        sink.destroy();
+        // then
+        val read = new ArrayList<AuditLog>();
+        try (InputStream in = Files.newInputStream(directory.resolve("audit.pb"))) {
+            AuditLog auditLog;
+            while ((auditLog = AuditLog.parseDelimitedFrom(in)) != null) {
+                read.add(auditLog);
+            }
+        }
+        assertThat(read).hasSize(20);
+        assertThat(read.get(19).getMessage()).isEqualTo("message 19");
+    }
+
+    @Test
+    void file_should_be_rolled_and_history_limited() throws Exception {
+        // given
+        val sink = new FileAuditSink(directory, FileAuditSink.Format.PROTOBUF, 512, 2, new ObjectMapper());
+        // when
+        for (int i = 0; i < 10; i++) {
+            sink.write(logs(i * 20, i * 20 + 20));
+            Thread.sleep(2);
+        }
+        sink.destroy();
+        // then
+        try (Stream<Path> files = Files.list(directory)) {
+            val names = files.map((path) -> path.getFileName().toString()).toList();
+            assertThat(names).contains("audit.pb");
+            assertThat(names.stream().filter((name) -> name.startsWith("audit-")).count()).isEqualTo(2);
+        }
+    }
+
+    private static List<AuditLog> logs(int from, int to) {
+        val logs = new ArrayList<AuditLog>();
+        for (int i = from; i < to; i++) {
+            logs.add(AuditLog.newBuilder()
+                .setTimestamp(i)
+                .setUserid("1")
+                .setActivity("test")
+                .setMessage("message " + i)
+                .build());
+        }
+        return logs;
+    }
+
+}
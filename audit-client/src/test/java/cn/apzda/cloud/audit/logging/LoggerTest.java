@@ -4,6 +4,7 @@ import cn.apzda.cloud.audit.AuditApp;
 import cn.apzda.cloud.audit.TestVo;
 import com.apzda.cloud.audit.autoconfig.AuditAutoConfiguration;
 import com.apzda.cloud.audit.logging.AuditLogger;
+import com.apzda.cloud.audit.logging.Logger;
 import com.apzda.cloud.audit.proto.AuditLog;
 import com.apzda.cloud.audit.proto.AuditService;
 import com.apzda.cloud.gsvc.ext.GsvcExt;
@@ -27,6 +28,7 @@ import org.springframework.test.context.TestPropertySource;
 
 import java.util.HashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
@@ -42,7 +44,9 @@ import static org.mockito.BDDMockito.given;
 @ImportAutoConfiguration({ AuditAutoConfiguration.class, AopAutoConfiguration.class, SecurityAutoConfiguration.class,
         ObservationAutoConfiguration.class })
 @ComponentScan(basePackages = { "cn.apzda.cloud.audit" })
-@TestPropertySource(properties = { "logging.level.com.apzda.cloud=trace" })
+@TestPropertySource(properties = { "logging.level.com.apzda.cloud=trace",
+        "apzda.audit.client.sampling.rules[0].activity=suppressed",
+        "apzda.audit.client.sampling.rules[0].suppress=true" })
 class LoggerTest {
 
     @MockBean
@@ -106,4 +110,40 @@ class LoggerTest {
         assertThat(map.get("nv")).isEqualTo("{\"phone\":\"130****8888\"}");
     }
 
+    @Test
+    void queued_log_should_not_be_sent_again() {
+        // given
+        val log = AuditLog.newBuilder().setActivity("test").build();
+        val res = GsvcExt.CommonRes.newBuilder().setErrCode(202).setErrMsg("Audit log is queued but not saved yet");
+        given(auditService.log(any())).willReturn(res.build());
+        // when
+        val delivered = Logger.send(auditService, log);
+        // then
+        assertThat(delivered).isTrue();
+    }
+
+    @Test
+    void values_should_not_be_serialized_when_event_is_not_sampled() {
+        // given
+        val value = new CountedValue();
+        // when
+        logger.activity("suppressed").newValue(value).log();
+        val unsampledReads = value.reads.get();
+        logger.activity("test").newValue(value).log();
+        // then
+        assertThat(unsampledReads).isZero();
+        assertThat(value.reads.get()).isGreaterThan(0);
+    }
+
+    static class CountedValue {
+
+        private final AtomicInteger reads = new AtomicInteger();
+
+        public String getValue() {
+            reads.incrementAndGet();
+            return "value";
+        }
+
+    }
+
 }
@@ -0,0 +1,69 @@
+package cn.apzda.cloud.audit.logging;
+
+import com.apzda.cloud.audit.autoconfig.AuditClientProperties;
+import com.apzda.cloud.audit.logging.ValueDiffer;
+import com.apzda.cloud.audit.logging.ValueSerializer;
+import com.apzda.cloud.audit.proto.AuditLog;
+import com.apzda.cloud.gsvc.utils.ResponseUtils;
+import lombok.val;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+class ValueDifferTest {
+
+    @BeforeAll
+    static void setup() {
+        ResponseUtils.config();
+    }
+
+    @Test
+    void small_change_should_be_sent_as_patch() {
+        // given
+        val differ = differ(0);
+        val builder = AuditLog.newBuilder();
+        val oldValue = Map.of("id", 1024, "status", "NEW", "remark", "x".repeat(100));
+        val newValue = Map.of("id", 1024, "status", "PAID", "remark", "x".repeat(100));
+        // when
+        differ.replace(builder, oldValue, newValue);
+        // then
+        assertThat(builder.hasOldJsonValue()).isTrue();
+        assertThat(builder.hasNewJsonValue()).isFalse();
+        assertThat(builder.getValuePatch()).contains("PAID");
+    }
+
+    @Test
+    void values_over_max_size_should_not_be_diffed() {
+        // given
+        val differ = differ(1024);
+        val builder = AuditLog.newBuilder();
+        val items = new ArrayList<String>();
+        for (int i = 0; i < 10_000; i++) {
+            items.add("item-" + i);
+        }
+        // when
+        differ.replace(builder, items, List.of("item-0"));
+        // then
+        assertThat(builder.hasValuePatch()).isFalse();
+        assertThat(builder.getTruncated()).isTrue();
+        assertThat(builder.getOldJsonValueBytes().size()).isLessThanOrEqualTo(1024);
+        assertThat(builder.getNewJsonValue()).isEqualTo("[\"item-0\"]");
+    }
+
+    private static ValueDiffer differ(long maxSize) {
+        val properties = new AuditClientProperties.Diff();
+        properties.setEnabled(true);
+        return new ValueDiffer(properties, new ValueSerializer(maxSize));
+    }
+
+}
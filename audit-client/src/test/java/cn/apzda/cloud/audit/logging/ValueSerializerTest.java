@@ -0,0 +1,69 @@
+package cn.apzda.cloud.audit.logging;
+
+import com.apzda.cloud.audit.logging.ValueSerializer;
+import com.apzda.cloud.audit.proto.AuditLog;
+import com.apzda.cloud.gsvc.utils.ResponseUtils;
+import lombok.val;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+class ValueSerializerTest {
+
+    @BeforeAll
+    static void setup() {
+        ResponseUtils.config();
+    }
+
+    @Test
+    void small_value_should_not_be_truncated() {
+        // given
+        val serializer = new ValueSerializer(1024);
+        val builder = AuditLog.newBuilder();
+        // when
+        serializer.setNewValue(builder, Map.of("phone", "130****8888"));
+        // then
+        assertThat(builder.getNewJsonValue()).isEqualTo("{\"phone\":\"130****8888\"}");
+        assertThat(builder.getTruncated()).isFalse();
+    }
+
+    @Test
+    void large_value_should_be_truncated() {
+        // given
+        val serializer = new ValueSerializer(4096);
+        val builder = AuditLog.newBuilder();
+        val items = new ArrayList<String>();
+        for (int i = 0; i < 100_000; i++) {
+            items.add("审计日志-" + i);
+        }
+        // when
+        serializer.setOldValue(builder, items);
+        // then
+        val bytes = builder.getOldJsonValueBytes();
+        assertThat(builder.getTruncated()).isTrue();
+        assertThat(bytes.size()).isLessThanOrEqualTo(4096).isGreaterThan(4090);
+        assertThat(bytes.isValidUtf8()).isTrue();
+        assertThat(builder.getOldJsonValue()).startsWith("[\"审计日志-0\"");
+    }
+
+    @Test
+    void long_string_should_be_cut_at_character_boundary() {
+        // given
+        val serializer = new ValueSerializer(10);
+        // when
+        val serialized = serializer.serialize("审计审计审计");
+        // then
+        assertThat(serialized.truncated()).isTrue();
+        assertThat(serialized.bytes().toStringUtf8()).isEqualTo("审计审");
+    }
+
+}
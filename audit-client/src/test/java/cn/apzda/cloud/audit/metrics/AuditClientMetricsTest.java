@@ -0,0 +1,71 @@
+package cn.apzda.cloud.audit.metrics;
+
+import com.apzda.cloud.audit.logging.AuditSink;
+import com.apzda.cloud.audit.logging.AuditSinks;
+import com.apzda.cloud.audit.metrics.AuditClientMetrics;
+import com.apzda.cloud.audit.proto.AuditLog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+class AuditClientMetricsTest {
+
+    @Test
+    void sink_writes_should_be_counted_by_outcome() {
+        // given
+        val registry = new SimpleMeterRegistry();
+        val metrics = new AuditClientMetrics(registry);
+        val sinks = new AuditSinks(List.of(sink("ok", false), sink("bad", true)), 16, 1000, metrics);
+        val log = AuditLog.newBuilder().setActivity("login").setLevel("info").setUserid("1").build();
+        // when
+        sinks.write(List.of(log, log));
+        // then
+        assertThat(registry.get("apzda.audit.client.events").tags("sink", "ok", "outcome", "success").counter().count())
+            .isEqualTo(2);
+        assertThat(registry.get("apzda.audit.client.events").tags("sink", "bad", "outcome", "failure").counter().count())
+            .isEqualTo(2);
+        assertThat(registry.get("apzda.audit.client.send").tag("sink", "ok").timer().count()).isEqualTo(1);
+        assertThat(registry.get("apzda.audit.client.sink.pending").tag("sink", "bad").gauge().value()).isZero();
+    }
+
+    @Test
+    void activity_tag_should_be_capped() {
+        // given
+        val registry = new SimpleMeterRegistry();
+        val metrics = new AuditClientMetrics(registry, 2);
+        // when
+        metrics.event("remote", "a", "info", "success");
+        metrics.event("remote", "b", "info", "success");
+        metrics.event("remote", "c", "info", "success");
+        metrics.event("remote", "d", "unknown", "success");
+        // then
+        assertThat(registry.get("apzda.audit.client.events").tag("activity", "other").counters()).hasSize(2);
+        assertThat(registry.get("apzda.audit.client.events").tag("level", "other").counter().count()).isEqualTo(1);
+    }
+
+    private static AuditSink sink(String name, boolean fail) {
+        return new AuditSink() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public void write(List<AuditLog> logs) {
+                if (fail) {
+                    throw new IllegalStateException("failed");
+                }
+            }
+        };
+    }
+
+}
@@ -24,6 +24,11 @@ import lombok.RequiredArgsConstructor;
 import lombok.val;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -64,6 +69,36 @@ public class DemoService {
         throw new RuntimeException(msg + " is invalid");
     }
 
+    @AuditLog(activity = "async", template = "result is {}", args = "#returnObj")
+    public CompletableFuture<String> helloAsync(String msg) {
+        return CompletableFuture.supplyAsync(() -> {
+            if ("bad".equals(msg)) {
+                throw new IllegalArgumentException(msg + " is invalid");
+            }
+            return "hi " + msg;
+        });
+    }
+
+    @AuditLog(activity = "reactive", template = "result is {}", args = "#returnObj")
+    public Mono<String> helloMono(String msg) {
+        return Mono.fromSupplier(() -> {
+            if ("bad".equals(msg)) {
+                throw new IllegalArgumentException(msg + " is invalid");
+            }
+            return "hi " + msg;
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @AuditLog(activity = "reactive-slow", message = "never answers")
+    public Mono<String> slowMono() {
+        return Mono.never();
+    }
+
+    @AuditLog(activity = "reactive-flux", message = "greeted")
+    public Flux<String> helloFlux(String... names) {
+        return Flux.fromArray(names).map((name) -> "hi " + name).subscribeOn(Schedulers.boundedElastic());
+    }
+
     public void publishEvent() {
         val audit = new Audit();
         audit.setActivity("test");
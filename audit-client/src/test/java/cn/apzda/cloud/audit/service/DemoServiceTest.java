@@ -2,14 +2,17 @@ package cn.apzda.cloud.audit.service;
 
 import cn.apzda.cloud.audit.AuditApp;
 import com.apzda.cloud.audit.autoconfig.AuditAutoConfiguration;
+import com.apzda.cloud.audit.proto.AuditLog;
 import com.apzda.cloud.audit.proto.AuditService;
 import com.apzda.cloud.gsvc.ext.GsvcExt;
 import com.apzda.cloud.gsvc.utils.ResponseUtils;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hubspot.jackson.datatype.protobuf.ProtobufModule;
+import lombok.val;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.actuate.autoconfigure.observation.ObservationAutoConfiguration;
 import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
@@ -21,8 +24,11 @@ import org.springframework.context.annotation.ComponentScan;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.TestPropertySource;
 
+import java.time.Duration;
 import java.util.concurrent.TimeUnit;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -69,4 +75,70 @@ class DemoServiceTest {
         verify(auditService, times(1)).log(any());
     }
 
+    @Test
+    void completableFutureShouldBeAuditedOnCompletion() {
+        // given
+        when(auditService.log(any())).thenReturn(GsvcExt.CommonRes.newBuilder().setErrCode(0).build());
+        val captor = ArgumentCaptor.forClass(AuditLog.class);
+        // when
+        val result = demoService.helloAsync("world").join();
+        val failed = demoService.helloAsync("bad");
+        // then
+        assertThat(result).isEqualTo("hi world");
+        assertThat(failed).failsWithin(Duration.ofSeconds(1));
+        verify(auditService, timeout(2000).times(2)).log(captor.capture());
+        assertThat(captor.getAllValues()).extracting(AuditLog::getLevel).containsExactlyInAnyOrder("info", "error");
+        assertThat(captor.getAllValues()).extracting(AuditLog::getMessage)
+            .contains("result is hi world", "bad is invalid");
+    }
+
+    @Test
+    void monoShouldBeAuditedWhenSubscribed() {
+        // given
+        when(auditService.log(any())).thenReturn(GsvcExt.CommonRes.newBuilder().setErrCode(0).build());
+        val captor = ArgumentCaptor.forClass(AuditLog.class);
+        // when
+        val mono = demoService.helloMono("reactor");
+        verify(auditService, after(200).never()).log(any());
+        val result = mono.block(Duration.ofSeconds(1));
+        // then
+        assertThat(result).isEqualTo("hi reactor");
+        verify(auditService, timeout(2000).times(1)).log(captor.capture());
+        assertThat(captor.getValue().getActivity()).isEqualTo("reactive");
+        assertThat(captor.getValue().getMessage()).isEqualTo("result is hi reactor");
+    }
+
+    @Test
+    void fluxShouldBeAuditedOnceWhenCompleted() {
+        // given
+        when(auditService.log(any())).thenReturn(GsvcExt.CommonRes.newBuilder().setErrCode(0).build());
+        val captor = ArgumentCaptor.forClass(AuditLog.class);
+        // when
+        val result = demoService.helloFlux("a", "b", "c").collectList().block(Duration.ofSeconds(1));
+        // then
+        assertThat(result).containsExactly("hi a", "hi b", "hi c");
+        verify(auditService, timeout(2000).times(1)).log(captor.capture());
+        verify(auditService, after(200).times(1)).log(any());
+        assertThat(captor.getValue().getActivity()).isEqualTo("reactive-flux");
+        assertThat(captor.getValue().getLevel()).isEqualTo("info");
+        assertThat(captor.getValue().getMessage()).isEqualTo("greeted");
+    }
+
+    @Test
+    void failedAndCancelledMonoShouldBeAuditedAsErrors() {
+        // given
+        when(auditService.log(any())).thenReturn(GsvcExt.CommonRes.newBuilder().setErrCode(0).build());
+        val captor = ArgumentCaptor.forClass(AuditLog.class);
+        // when
+        val failed = demoService.helloMono("bad");
+        val timedOut = demoService.slowMono().timeout(Duration.ofMillis(100)).onErrorReturn("timeout");
+        // then
+        assertThatThrownBy(() -> failed.block(Duration.ofSeconds(1))).isInstanceOf(IllegalArgumentException.class);
+        assertThat(timedOut.block(Duration.ofSeconds(1))).isEqualTo("timeout");
+        verify(auditService, timeout(2000).times(2)).log(captor.capture());
+        assertThat(captor.getAllValues()).extracting(AuditLog::getActivity)
+            .containsExactlyInAnyOrder("reactive", "reactive-slow");
+        assertThat(captor.getAllValues()).extracting(AuditLog::getLevel).containsOnly("error");
+    }
+
 }
@@ -0,0 +1,143 @@
+package cn.apzda.cloud.audit.spool;
+
+import com.apzda.cloud.audit.proto.AuditLog;
+import com.apzda.cloud.audit.spool.AuditSpool;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+class AuditSpoolTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void spooled_logs_should_survive_restart() throws Exception {
+        // given
+        var spool = open();
+        assertThat(spool.isEmpty()).isTrue();
+        // when
+        assertThat(spool.append(logs(0, 50))).isEqualTo(50);
+        val first = spool.peek(20);
+        spool.commit();
+        spool.close();
+        spool = open();
+        val rest = spool.peek(100);
+        spool.commit();
+        // then
+        assertThat(first).hasSize(20);
+        assertThat(first.get(0).getMessage()).isEqualTo("message 0");
+        assertThat(rest).hasSize(30);
+        assertThat(rest.get(0).getMessage()).isEqualTo("message 20");
+        assertThat(rest.get(29).getMessage()).isEqualTo("message 49");
+        assertThat(spool.isEmpty()).isTrue();
+        spool.close();
+    }
+
+    @Test
+    void uncommitted_logs_should_be_read_again() throws Exception {
+        // given
+        val spool = open();
+        spool.append(logs(0, 5));
+        // when
+        val first = spool.peek(5);
+        val second = spool.peek(5);
+        // then
+        assertThat(second).isEqualTo(first);
+        assertThat(spool.isEmpty()).isFalse();
+        spool.close();
+    }
+
+    @Test
+    void partly_committed_logs_should_be_read_from_the_first_uncommitted_one() throws Exception {
+        // given
+        val spool = open();
+        spool.append(logs(0, 5));
+        // when
+        spool.peek(5);
+        spool.commit(2);
+        val rest = spool.peek(5);
+        // then
+        assertThat(rest).hasSize(3);
+        assertThat(rest.get(0).getMessage()).isEqualTo("message 2");
+        spool.close();
+    }
+
+    @Test
+    void too_large_log_should_not_be_counted_as_spooled() throws Exception {
+        // given
+        val spool = new AuditSpool(directory, 1024, 4096, AuditSpool.FsyncPolicy.NEVER, Duration.ZERO);
+        val logs = new ArrayList<>(logs(0, 2));
+        logs.add(1, logs.get(0).toBuilder().setMessage("x".repeat(2048)).build());
+        // when
+        val appended = spool.append(logs);
+        // then
+        assertThat(appended).isEqualTo(2);
+        assertThat(spool.peek(10)).extracting(AuditLog::getMessage).containsExactly("message 0", "message 1");
+        spool.close();
+    }
+
+    @Test
+    void spool_should_roll_segments_and_respect_max_size() throws Exception {
+        // given
+        val spool = new AuditSpool(directory, 1024, 4096, AuditSpool.FsyncPolicy.NEVER, Duration.ZERO);
+        // when
+        val appended = spool.append(logs(0, 1000));
+        val read = spool.peek(1000);
+        // then
+        assertThat(appended).isGreaterThan(0).isLessThan(1000);
+        assertThat(spool.getSize()).isEqualTo(4096);
+        assertThat(read).hasSize(appended);
+        spool.commit();
+        assertThat(spool.isEmpty()).isTrue();
+        assertThat(spool.getSize()).isEqualTo(1024);
+        spool.close();
+    }
+
+    @Test
+    void spool_smaller_than_two_segments_should_keep_accepting_logs() throws Exception {
+        // given
+        val spool = new AuditSpool(directory, 1024, 1024, AuditSpool.FsyncPolicy.NEVER, Duration.ZERO);
+        for (int round = 0; round < 3; round++) {
+            // when
+            val appended = spool.append(logs(0, 1000));
+            val read = spool.peek(1000);
+            spool.commit();
+            // then
+            assertThat(appended).isGreaterThan(0);
+            assertThat(read).hasSize(appended);
+            assertThat(spool.isEmpty()).isTrue();
+        }
+        spool.close();
+    }
+
+    private AuditSpool open() throws Exception {
+        return new AuditSpool(directory, 64 * 1024, 1024 * 1024, AuditSpool.FsyncPolicy.ALWAYS, Duration.ZERO);
+    }
+
+    private static List<AuditLog> logs(int from, int to) {
+        val logs = new ArrayList<AuditLog>();
+        for (int i = from; i < to; i++) {
+            logs.add(AuditLog.newBuilder()
+                .setTimestamp(i)
+                .setUserid("1")
+                .setActivity("test")
+                .setMessage("message " + i)
+                .build());
+        }
+        return logs;
+    }
+
+}
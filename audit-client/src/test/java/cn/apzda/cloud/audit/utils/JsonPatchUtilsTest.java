@@ -0,0 +1,62 @@
+package cn.apzda.cloud.audit.utils;
+
+import com.apzda.cloud.audit.utils.JsonPatchUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+class JsonPatchUtilsTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void patch_should_turn_source_into_target() throws Exception {
+        // given
+        val source = objectMapper.readTree("""
+                {"id":1,"name":"a","a/b":"x","tags":["t1","t2","t3"],"addr":{"city":"bj","zip":"100000"}}""");
+        val target = objectMapper.readTree("""
+                {"id":1,"name":"b","a/b":"y","tags":["t1","t4"],"addr":{"city":"sh"},"phone":"130"}""");
+        // when
+        val patch = JsonPatchUtils.diff(source, target);
+        val reverse = JsonPatchUtils.diff(target, source);
+        // then
+        assertThat(patch.toString()).contains("\"/a~1b\"").doesNotContain("\"/id\"");
+        assertThat(JsonPatchUtils.apply(source, patch)).isEqualTo(target);
+        assertThat(JsonPatchUtils.apply(target, reverse)).isEqualTo(source);
+        assertThat(source.get("name").asText()).isEqualTo("a");
+    }
+
+    @Test
+    void equal_documents_should_have_empty_patch() throws Exception {
+        val doc = objectMapper.readTree("{\"id\":1,\"items\":[1,2]}");
+
+        assertThat(JsonPatchUtils.diff(doc, doc.deepCopy())).isEmpty();
+    }
+
+    @Test
+    void standard_operations_should_be_applied() throws Exception {
+        // given
+        val doc = objectMapper.readTree("{\"a\":{\"b\":1},\"c\":[1,2]}");
+        val patch = objectMapper.readTree("""
+                [{"op":"test","path":"/a/b","value":1},
+                 {"op":"move","from":"/a/b","path":"/d"},
+                 {"op":"copy","from":"/c","path":"/e"},
+                 {"op":"add","path":"/c/-","value":3},
+                 {"op":"replace","path":"/c/0","value":0}]""");
+        // when
+        val patched = JsonPatchUtils.apply(doc, patch);
+        // then
+        assertThat(patched).isEqualTo(objectMapper.readTree("{\"a\":{},\"c\":[0,2,3],\"d\":1,\"e\":[1,2]}"));
+        assertThatThrownBy(() -> JsonPatchUtils.apply(doc, objectMapper.readTree("[{\"op\":\"remove\",\"path\":\"/x\"}]")))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
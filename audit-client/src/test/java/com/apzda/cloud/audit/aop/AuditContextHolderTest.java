@@ -0,0 +1,156 @@
+package com.apzda.cloud.audit.aop;
+
+import lombok.val;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * It lives in the {@code aop} package to reach the package-private {@code create()}.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+class AuditContextHolderTest {
+
+    @AfterEach
+    void cleanup() {
+        AuditContextHolder.clear();
+    }
+
+    @Test
+    void outer_context_should_survive_an_inner_call() {
+        // given
+        val outer = AuditContextHolder.create();
+        outer.getData().put("order", 1);
+        outer.setNewValue("outer");
+        // when
+        val inner = AuditContextHolder.create();
+        inner.getData().put("order", 2);
+        inner.setNewValue("inner");
+        AuditContextHolder.restore(outer);
+        // then
+        assertThat(inner).isNotSameAs(outer);
+        assertThat(AuditContextHolder.getContext()).isSameAs(outer);
+        assertThat(outer.getData()).containsEntry("order", 1);
+        assertThat(outer.getNewValue()).isEqualTo("outer");
+        assertThat(inner.getData()).isEmpty();
+        assertThat(inner.getNewValue()).isNull();
+    }
+
+    @Test
+    void restore_null_should_reset_all_the_frames() {
+        // given
+        val outer = AuditContextHolder.create();
+        outer.getData().put("order", 1);
+        AuditContextHolder.create().getData().put("order", 2);
+        // when
+        AuditContextHolder.restore(null);
+        val next = AuditContextHolder.create();
+        // then
+        assertThat(outer.getData()).isEmpty();
+        assertThat(next).isSameAs(outer);
+        assertThat(next.getData()).isEmpty();
+        AuditContextHolder.restore(null);
+        assertThat(AuditContextHolder.getContext()).isNull();
+    }
+
+    @Test
+    void wrapped_task_should_see_a_copy_of_the_context_on_another_thread() throws Exception {
+        // given
+        val context = AuditContextHolder.create();
+        context.getData().put("order", 1);
+        context.setUsername("alice");
+        val executor = Executors.newSingleThreadExecutor();
+        try {
+            // when
+            val task = AuditContextHolder.wrap(() -> {
+                val copy = AuditContextHolder.getContext();
+                // nested calls on the other thread push on top of the copy
+                val inner = AuditContextHolder.create();
+                inner.getData().put("order", 2);
+                AuditContextHolder.restore(copy);
+                return copy;
+            });
+            val copy = CompletableFuture.supplyAsync(task, executor).get();
+            val leftover = CompletableFuture.supplyAsync(AuditContextHolder::getContext, executor).get();
+            // then
+            assertThat(copy).isNotSameAs(context);
+            assertThat(copy.getData()).containsEntry("order", 1);
+            assertThat(copy.getUsername()).isEqualTo("alice");
+            assertThat(leftover).isNull();
+            assertThat(AuditContextHolder.getContext()).isSameAs(context);
+            assertThat(context.getData()).containsEntry("order", 1);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void call_with_should_restore_the_previous_context() {
+        // given
+        val previous = AuditContextHolder.create();
+        val detached = AuditContextHolder.detach();
+        detached.getData().put("detached", true);
+        // when
+        val seen = AuditContextHolder.callWith(detached, AuditContextHolder::getContext);
+        // then
+        assertThat(seen).isSameAs(detached);
+        assertThat(AuditContextHolder.getContext()).isSameAs(previous);
+    }
+
+    @Test
+    void detached_context_should_not_be_reset_by_nested_calls() {
+        // given
+        val original = AuditContextHolder.create();
+        original.getData().put("order", 1);
+        val detached = AuditContextHolder.detach();
+        AuditContextHolder.restore(null);
+        // when
+        AuditContextHolder.setContext(detached);
+        val inner = AuditContextHolder.create();
+        inner.getData().put("order", 2);
+        AuditContextHolder.restore(detached);
+        val next = AuditContextHolder.create();
+        // then
+        assertThat(detached.getData()).containsEntry("order", 1);
+        assertThat(inner.getData()).isEmpty();
+        assertThat(next).isSameAs(inner);
+        AuditContextHolder.restore(detached);
+        assertThat(AuditContextHolder.getContext()).isSameAs(detached);
+    }
+
+    @Test
+    void frames_should_be_reset_when_the_call_throws() {
+        // given
+        val outer = AuditContextHolder.create();
+        outer.getData().put("order", 1);
+        // when
+        assertThatThrownBy(() -> {
+            val old = AuditContextHolder.getContext();
+            try {
+                AuditContextHolder.create().getData().put("order", 2);
+                AuditContextHolder.create().getData().put("order", 3);
+                throw new IllegalStateException("failed");
+            }
+            finally {
+                AuditContextHolder.restore(old);
+            }
+        }).isInstanceOf(IllegalStateException.class);
+        val next = AuditContextHolder.create();
+        // then
+        assertThat(AuditContextHolder.getContext()).isSameAs(next);
+        assertThat(next.getData()).isEmpty();
+        assertThat(outer.getData()).containsEntry("order", 1);
+        AuditContextHolder.restore(outer);
+        assertThat(AuditContextHolder.getContext()).isSameAs(outer);
+    }
+
+}
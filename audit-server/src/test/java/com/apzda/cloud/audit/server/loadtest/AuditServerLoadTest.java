@@ -0,0 +1,268 @@
+package com.apzda.cloud.audit.server.loadtest;
+
+import com.apzda.cloud.audit.proto.AuditLog;
+import com.apzda.cloud.audit.proto.AuditLogBatch;
+import com.apzda.cloud.audit.proto.AuditService;
+import com.apzda.cloud.audit.proto.Query;
+import com.apzda.cloud.audit.server.AuditServer;
+import com.apzda.cloud.gsvc.context.CurrentUserProvider;
+import com.apzda.cloud.gsvc.dto.CurrentUser;
+import com.apzda.cloud.gsvc.ext.GsvcExt;
+import lombok.val;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Load generator for the audit server: starts {@link AuditServer} against an in-memory
+ * H2 database in MySQL mode (schema from {@code db/migration/h2}) and drives
+ * {@code log}, {@code logs} and {@code myLogs} from a pool of workers, then prints the
+ * throughput and the p50/p99/p999 latency of every operation and writes the full HDR
+ * histograms to {@code target/loadtest}. It needs no network and no container, and is
+ * skipped unless a scenario is given:
+ *
+ * <pre>
+ * mvn -pl audit-server -am test -Dtest=AuditServerLoadTest -Dsurefire.failIfNoSpecifiedTests=false \
+ *     -Dloadtest.scenario=mixed -Dloadtest.concurrency=16 -Dloadtest.duration=60
+ * </pre>
+ *
+ * Settings (system properties):
+ * <ul>
+ * <li>{@code loadtest.scenario}: {@code ingest-only}, {@code mixed} or
+ * {@code large-payload}, see {@link LoadScenario}.</li>
+ * <li>{@code loadtest.concurrency}: number of workers, 8 by default.</li>
+ * <li>{@code loadtest.duration}: measured seconds, 30 by default.</li>
+ * <li>{@code loadtest.warmup}: seconds run before measuring, 10 by default.</li>
+ * <li>{@code loadtest.seed}: logs inserted before the run so queries have rows to read,
+ * 10000 by default.</li>
+ * <li>{@code loadtest.rate}: total target operations per second. 0 (the default) runs
+ * the workers back to back; otherwise the calls are paced and the latency is measured
+ * from the intended start, so a stalled server is not hidden by coordinated
+ * omission.</li>
+ * </ul>
+ * The operations call the {@link AuditService} bean, the same one the gateway calls.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@SpringBootTest(classes = { AuditServer.class, AuditServerLoadTest.LoadTestConfig.class })
+@ActiveProfiles({ "loadtest" })
+@EnabledIfSystemProperty(named = "loadtest.scenario", matches = ".+")
+class AuditServerLoadTest {
+
+    private static final String[] ACTIVITIES = { "login", "logout", "view-order", "update-order", "export" };
+
+    private static final int USERS = 1000;
+
+    private static final String ME = "u1";
+
+    @Autowired
+    private AuditService auditService;
+
+    @Test
+    void run() throws Exception {
+        // given
+        val scenario = LoadScenario.of(System.getProperty("loadtest.scenario"));
+        val concurrency = Integer.getInteger("loadtest.concurrency", 8);
+        val duration = Long.getLong("loadtest.duration", 30);
+        val warmup = Long.getLong("loadtest.warmup", 10);
+        val rate = Long.getLong("loadtest.rate", 0);
+        val value = scenario.valueSize > 0 ? "{\"data\":\"" + "x".repeat(scenario.valueSize) + "\"}" : null;
+        seed(Integer.getInteger("loadtest.seed", 10_000));
+        val recorders = new EnumMap<LoadScenario.Operation, Recorder>(LoadScenario.Operation.class);
+        for (LoadScenario.Operation operation : LoadScenario.Operation.values()) {
+            recorders.put(operation, new Recorder(3));
+        }
+        val errors = new LongAdder();
+        // when
+        drive(scenario, value, concurrency, rate, warmup, recorders, errors);
+        recorders.values().forEach(Recorder::reset);
+        errors.reset();
+        val start = System.nanoTime();
+        drive(scenario, value, concurrency, rate, duration, recorders, errors);
+        val elapsed = (System.nanoTime() - start) / 1e9;
+        // then
+        report(scenario, concurrency, rate, elapsed, recorders, errors.sum());
+        assertThat(errors.sum()).isZero();
+    }
+
+    private void seed(int count) {
+        for (int i = 0; i < count; i += 500) {
+            val batch = AuditLogBatch.newBuilder();
+            for (int j = i; j < Math.min(count, i + 500); j++) {
+                batch.addLog(event(null));
+            }
+            auditService.logBatch(batch.build());
+        }
+    }
+
+    private void drive(LoadScenario scenario, String value, int concurrency, long rate, long seconds,
+            Map<LoadScenario.Operation, Recorder> recorders, LongAdder errors) throws Exception {
+        val executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            val interval = rate > 0 ? TimeUnit.SECONDS.toNanos(concurrency) / rate : 0;
+            val workers = new ArrayList<Future<?>>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                workers.add(executor.submit(() -> work(scenario, value, deadline, interval, recorders, errors)));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        }
+        finally {
+            shutdown(executor);
+        }
+    }
+
+    private void work(LoadScenario scenario, String value, long deadline, long interval,
+            Map<LoadScenario.Operation, Recorder> recorders, LongAdder errors) {
+        SecurityContextHolder.getContext()
+            .setAuthentication(UsernamePasswordAuthenticationToken.authenticated(ME, null,
+                    AuthorityUtils.createAuthorityList("r:auditlog")));
+        try {
+            long intended = System.nanoTime();
+            while (intended < deadline) {
+                if (interval > 0) {
+                    val wait = intended - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                else {
+                    intended = System.nanoTime();
+                }
+                val operation = scenario.next();
+                try {
+                    if (call(operation, value) != 0) {
+                        errors.increment();
+                    }
+                }
+                catch (Exception e) {
+                    errors.increment();
+                }
+                recorders.get(operation).recordValue(System.nanoTime() - intended);
+                intended = interval > 0 ? intended + interval : System.nanoTime();
+            }
+        }
+        finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    private int call(LoadScenario.Operation operation, String value) {
+        return switch (operation) {
+            case LOG -> auditService.log(event(value)).getErrCode();
+            case LOGS -> auditService.logs(query(ACTIVITIES[random(ACTIVITIES.length)])).getErrCode();
+            case MY_LOGS -> auditService.myLogs(query(null)).getErrCode();
+        };
+    }
+
+    private static AuditLog event(String value) {
+        val builder = AuditLog.newBuilder()
+            .setTimestamp(System.currentTimeMillis())
+            .setUserid("u" + random(USERS))
+            .setActivity(ACTIVITIES[random(ACTIVITIES.length)])
+            .setLevel("info")
+            .setIp("127.0.0.1")
+            .setDevice("loadtest")
+            .setMessage("order " + random(1_000_000) + " was viewed from the load test");
+        if (value != null) {
+            builder.setOldJsonValue(value).setNewJsonValue(value);
+        }
+        return builder.build();
+    }
+
+    private static Query query(String activity) {
+        val builder = Query.newBuilder().setPager(GsvcExt.Pager.newBuilder().setPageNumber(0).setPageSize(20));
+        if (activity != null) {
+            builder.setActivity(activity);
+        }
+        return builder.build();
+    }
+
+    private static int random(int bound) {
+        return ThreadLocalRandom.current().nextInt(bound);
+    }
+
+    private static void report(LoadScenario scenario, int concurrency, long rate, double elapsed,
+            Map<LoadScenario.Operation, Recorder> recorders, long errors) throws Exception {
+        val dir = Files.createDirectories(Path.of("target", "loadtest"));
+        val out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "%nscenario=%s concurrency=%d rate=%s duration=%.1fs errors=%d%n",
+                scenario, concurrency, rate > 0 ? rate : "unbounded", elapsed, errors));
+        out.append(String.format(Locale.ROOT, "%-10s %10s %10s %10s %10s %10s %10s%n", "operation", "count",
+                "ops/s", "p50(us)", "p99(us)", "p999(us)", "max(us)"));
+        long total = 0;
+        for (Map.Entry<LoadScenario.Operation, Recorder> entry : recorders.entrySet()) {
+            Histogram histogram = entry.getValue().getIntervalHistogram();
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            total += histogram.getTotalCount();
+            out.append(String.format(Locale.ROOT, "%-10s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", entry.getKey(),
+                    histogram.getTotalCount(), histogram.getTotalCount() / elapsed,
+                    histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(99) / 1e3,
+                    histogram.getValueAtPercentile(99.9) / 1e3, histogram.getMaxValue() / 1e3));
+            val file = dir.resolve(scenario.name().toLowerCase(Locale.ROOT) + "-"
+                    + entry.getKey().name().toLowerCase(Locale.ROOT) + ".hgrm");
+            try (PrintStream stream = new PrintStream(new FileOutputStream(file.toFile()))) {
+                histogram.outputPercentileDistribution(stream, 1e3);
+            }
+        }
+        out.append(String.format(Locale.ROOT, "%-10s %10d %10.1f%n", "total", total, total / elapsed));
+        System.out.print(out);
+    }
+
+    private static void shutdown(ExecutorService executor) throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @TestConfiguration(proxyBeanMethods = false)
+    static class LoadTestConfig {
+
+        @Bean
+        CurrentUserProvider currentUserProvider() {
+            return new CurrentUserProvider() {
+                @Override
+                protected CurrentUser currentUser() {
+                    val builder = CurrentUser.builder();
+                    builder.uid(ME);
+                    builder.device("loadtest");
+                    return builder.build();
+                }
+            };
+        }
+
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.apzda.cloud.audit.server.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The preset load-test scenarios: the share of each operation and the size of the old
+ * and new values sent with every {@code log} call.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+enum LoadScenario {
+
+    /**
+     * {@code log} calls only, with small events.
+     */
+    INGEST_ONLY(100, 0, 0, 0),
+    /**
+     * 70% {@code log}, 20% {@code logs} and 10% {@code myLogs}.
+     */
+    MIXED(70, 20, 10, 0),
+    /**
+     * {@code log} calls only, each carrying a 64KB old and new value.
+     */
+    LARGE_PAYLOAD(100, 0, 0, 64 * 1024);
+
+    private final int log;
+
+    private final int logs;
+
+    private final int myLogs;
+
+    final int valueSize;
+
+    LoadScenario(int log, int logs, int myLogs, int valueSize) {
+        this.log = log;
+        this.logs = logs;
+        this.myLogs = myLogs;
+        this.valueSize = valueSize;
+    }
+
+    Operation next() {
+        int dice = ThreadLocalRandom.current().nextInt(log + logs + myLogs);
+        if (dice < log) {
+            return Operation.LOG;
+        }
+        return dice < log + logs ? Operation.LOGS : Operation.MY_LOGS;
+    }
+
+    static LoadScenario of(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+
+    enum Operation {
+
+        LOG, LOGS, MY_LOGS
+
+    }
+
+}
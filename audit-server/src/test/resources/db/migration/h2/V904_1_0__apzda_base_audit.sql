@@ -0,0 +1,26 @@
+-- H2 (MySQL mode) counterpart of db/migration/mysql, used by the load test only
+CREATE TABLE apzda_audit_log
+(
+    id         BIGINT AUTO_INCREMENT PRIMARY KEY,
+    created_at BIGINT      NULL DEFAULT NULL,
+    created_by VARCHAR(32) NULL,
+    updated_at BIGINT      NULL DEFAULT NULL,
+    updated_by VARCHAR(32) NULL,
+    deleted    BOOLEAN     NOT NULL DEFAULT FALSE,
+    tenant_id  VARCHAR(32) NULL,
+    user_id    VARCHAR(32) NOT NULL,
+    log_time   BIGINT      NOT NULL,
+    template   BOOLEAN     NOT NULL DEFAULT FALSE,
+    activity   VARCHAR(64) NOT NULL,
+    level      VARCHAR(12) NULL DEFAULT 'info',
+    ip         VARCHAR(126) NULL DEFAULT NULL,
+    message    CLOB        NULL DEFAULT NULL,
+    args       CLOB        NULL DEFAULT NULL,
+    old_value  CLOB        NULL DEFAULT NULL,
+    new_value  CLOB        NULL DEFAULT NULL
+);
+CREATE INDEX idx_log_time ON apzda_audit_log (log_time);
+CREATE INDEX idx_user_id ON apzda_audit_log (user_id, log_time);
+CREATE INDEX idx_tenant_id ON apzda_audit_log (tenant_id);
+CREATE INDEX idx_activity_user_id ON apzda_audit_log (activity, user_id);
+CREATE INDEX idx_activity_log_time ON apzda_audit_log (activity, log_time);
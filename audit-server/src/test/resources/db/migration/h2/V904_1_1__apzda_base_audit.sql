@@ -0,0 +1,3 @@
+ALTER TABLE apzda_audit_log ADD COLUMN runas VARCHAR(32) NULL AFTER activity;
+ALTER TABLE apzda_audit_log ADD COLUMN device VARCHAR(64) NULL AFTER ip;
+CREATE INDEX idx_runas ON apzda_audit_log (runas, activity);
@@ -0,0 +1 @@
+ALTER TABLE apzda_audit_log ADD COLUMN value_patch CLOB NULL DEFAULT NULL AFTER new_value;
@@ -0,0 +1 @@
+ALTER TABLE apzda_audit_log ADD COLUMN truncated BOOLEAN NOT NULL DEFAULT FALSE AFTER value_patch;
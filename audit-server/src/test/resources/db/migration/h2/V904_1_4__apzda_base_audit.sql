@@ -0,0 +1,2 @@
+ALTER TABLE apzda_audit_log ADD COLUMN repeat_count INT NOT NULL DEFAULT 1 AFTER truncated;
+ALTER TABLE apzda_audit_log ADD COLUMN last_log_time BIGINT NULL DEFAULT NULL AFTER repeat_count;
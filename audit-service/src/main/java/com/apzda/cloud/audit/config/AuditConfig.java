@@ -16,9 +16,25 @@
  */
 package com.apzda.cloud.audit.config;
 
+import com.apzda.cloud.audit.domain.id.SnowflakeIdGenerator;
+import com.apzda.cloud.audit.domain.id.SnowflakeIdentifierGenerator;
+import com.apzda.cloud.audit.domain.repository.AuditLogJdbcRepository;
+import com.apzda.cloud.audit.ingest.AuditLogIngestor;
+import com.apzda.cloud.audit.partition.AuditLogPartitionManager;
+import com.apzda.cloud.audit.retention.AuditLogRetention;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import lombok.val;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -28,6 +44,42 @@ import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 @Configuration(proxyBeanMethods = false)
 @EnableJpaRepositories(basePackages = { "com.apzda.cloud.audit.domain.repository" })
 @EntityScan("com.apzda.cloud.audit.domain.entity")
+@EnableConfigurationProperties(AuditServerProperties.class)
 public class AuditConfig {
 
+    @Bean
+    SnowflakeIdGenerator snowflakeIdGenerator(AuditServerProperties properties) {
+        val nodeId = properties.getNodeId();
+        if (nodeId == null) {
+            throw new IllegalStateException("apzda.audit.server.node-id is not set: give every server writing to the "
+                    + "same database its own node id (0-" + SnowflakeIdGenerator.MAX_NODE_ID + ")");
+        }
+        return new SnowflakeIdGenerator(nodeId);
+    }
+
+    @Bean
+    HibernatePropertiesCustomizer snowflakeIdHibernatePropertiesCustomizer(SnowflakeIdGenerator snowflakeIdGenerator) {
+        return (hibernateProperties) -> hibernateProperties.put(SnowflakeIdentifierGenerator.GENERATOR_SETTING,
+                snowflakeIdGenerator);
+    }
+
+    @Bean
+    AuditLogIngestor auditLogIngestor(AuditServerProperties properties,
+            AuditLogJdbcRepository auditLogJdbcRepository, PlatformTransactionManager transactionManager) {
+        return new AuditLogIngestor(properties.getIngest(), auditLogJdbcRepository,
+                new TransactionTemplate(transactionManager));
+    }
+
+    @Bean
+    AuditLogPartitionManager auditLogPartitionManager(AuditServerProperties properties, JdbcTemplate jdbcTemplate) {
+        return new AuditLogPartitionManager(properties.getPartition(), jdbcTemplate);
+    }
+
+    @Bean
+    AuditLogRetention auditLogRetention(AuditServerProperties properties, JdbcTemplate jdbcTemplate,
+            AuditLogPartitionManager auditLogPartitionManager, ObjectProvider<MeterRegistry> meterRegistry) {
+        return new AuditLogRetention(properties.getRetention(), jdbcTemplate, auditLogPartitionManager,
+                meterRegistry.getIfAvailable(CompositeMeterRegistry::new));
+    }
+
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.config;
+
+import com.apzda.cloud.audit.ingest.AckMode;
+import com.apzda.cloud.audit.partition.AuditLogPartitionManager;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Data
+@ConfigurationProperties(prefix = "apzda.audit.server")
+public class AuditServerProperties {
+
+    private final Ingest ingest = new Ingest();
+
+    private final Partition partition = new Partition();
+
+    private final Retention retention = new Retention();
+
+    /**
+     * Node id of this server in the audit log ids (0-1023), it must be unique among the
+     * servers writing to the same database. Required, the server does not start
+     * without it.
+     */
+    private Integer nodeId;
+
+    /**
+     * Range of {@code log_time} searched by queries without a start time, so that they
+     * only read the recent partitions. Unset by default: such queries search all the logs.
+     */
+    private Duration queryRange;
+
+    @Data
+    public static class Ingest {
+
+        /**
+         * Queue the logs received by {@code log} and insert them in group commits. When
+         * disabled every log is saved in its own transaction.
+         */
+        private boolean enabled = true;
+
+        /**
+         * When to answer the caller: after the group commit (commit) or as soon as the
+         * log is queued (enqueue).
+         */
+        private AckMode ack = AckMode.COMMIT;
+
+        /**
+         * Max number of logs waiting to be inserted.
+         */
+        private int queueCapacity = 16384;
+
+        /**
+         * Max number of logs inserted in one commit.
+         */
+        private int batchSize = 500;
+
+        /**
+         * How long a writer waits for a group to fill up.
+         */
+        private Duration linger = Duration.ofMillis(5);
+
+        /**
+         * Number of writer threads.
+         */
+        private int threads = 1;
+
+        /**
+         * How long a call waits for space in a full queue before it is rejected.
+         */
+        private Duration enqueueTimeout = Duration.ofMillis(100);
+
+        /**
+         * How long a call waits for the commit in the commit mode. A call timing out
+         * answers 202: the log is still queued and must not be sent again. Keep it below
+         * the call timeout of the clients, which resend the logs of failed calls.
+         */
+        private Duration commitTimeout = Duration.ofSeconds(10);
+
+        /**
+         * How long to wait for queued logs to be inserted on shutdown.
+         */
+        private Duration shutdownTimeout = Duration.ofSeconds(10);
+
+    }
+
+    @Data
+    public static class Partition {
+
+        /**
+         * Create the partitions of {@code apzda_audit_log} ahead of time. Nothing is done
+         * when the table is not partitioned.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Time range of a partition.
+         */
+        private AuditLogPartitionManager.Period period = AuditLogPartitionManager.Period.MONTH;
+
+        /**
+         * Number of partitions kept ahead of the current one.
+         */
+        private int ahead = 2;
+
+        /**
+         * How often the partitions are checked.
+         */
+        private Duration checkInterval = Duration.ofHours(1);
+
+    }
+
+    @Data
+    public static class Retention {
+
+        /**
+         * Purge the audit logs older than their retention.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Retention of the logs matching no rule, {@code null} keeps them forever.
+         */
+        private Duration keep;
+
+        /**
+         * Retention by tenant and activity, the first rule matching a log applies.
+         */
+        private List<RetentionRule> rules = new ArrayList<>();
+
+        /**
+         * How often the expired logs are purged.
+         */
+        private Duration interval = Duration.ofHours(1);
+
+        /**
+         * Max number of rows deleted by one statement.
+         */
+        private int chunkSize = 1000;
+
+        /**
+         * Pause between two delete statements, so replicas keep up.
+         */
+        private Duration pause = Duration.ofMillis(200);
+
+        /**
+         * Max number of rows deleted by one run, the rest is deleted by the next runs.
+         */
+        private long maxRowsPerRun = 1_000_000;
+
+    }
+
+    @Data
+    public static class RetentionRule {
+
+        /**
+         * Tenant id, {@code *} is a wildcard.
+         */
+        private String tenant = "*";
+
+        /**
+         * Activity, {@code *} is a wildcard.
+         */
+        private String activity = "*";
+
+        private Duration keep;
+
+    }
+
+}
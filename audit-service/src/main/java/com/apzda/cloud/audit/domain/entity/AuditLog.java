@@ -16,6 +16,7 @@
  */
 package com.apzda.cloud.audit.domain.entity;
 
+import com.apzda.cloud.audit.domain.id.SnowflakeId;
 import com.apzda.cloud.gsvc.domain.AuditingEntityListener;
 import com.apzda.cloud.gsvc.model.Auditable;
 import com.apzda.cloud.gsvc.model.SoftDeletable;
@@ -40,7 +41,7 @@ import lombok.*;
 public class AuditLog implements Auditable<Long, String, Long>, Tenantable<String>, SoftDeletable {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @SnowflakeId
     private Long id;
 
     private Long createdAt;
@@ -79,4 +80,12 @@ public class AuditLog implements Auditable<Long, String, Long>, Tenantable<Strin
 
     private String newValue;
 
+    private String valuePatch;
+
+    private Boolean truncated;
+
+    private Integer repeatCount;
+
+    private Long lastLogTime;
+
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.domain.id;
+
+import lombok.val;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Snowflake style ids: 41 bits of milliseconds since {@link #EPOCH}, 10 bits of node id
+ * and a 12 bits sequence, so ids sort by creation time and ids of different nodes never
+ * collide.
+ * <p>
+ * The ids of one generator are strictly increasing: when the sequence of a millisecond
+ * is exhausted, or the clock goes backwards, the generator moves on to the next
+ * millisecond of its own clock instead of waiting or failing, and catches up with the
+ * wall clock once it passes it.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+public class SnowflakeIdGenerator {
+
+    /**
+     * 2024-01-01T00:00:00Z.
+     */
+    public static final long EPOCH = 1704067200000L;
+
+    public static final int NODE_BITS = 10;
+
+    public static final int SEQUENCE_BITS = 12;
+
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    private static final int TIMESTAMP_SHIFT = NODE_BITS + SEQUENCE_BITS;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long node;
+
+    /**
+     * Milliseconds since the epoch and sequence of the last id.
+     */
+    private final AtomicLong last = new AtomicLong();
+
+    public SnowflakeIdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("node id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.node = (long) nodeId << SEQUENCE_BITS;
+    }
+
+    public long nextId() {
+        val now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+        long prev;
+        long next;
+        do {
+            prev = last.get();
+            next = now > prev ? now : prev + 1;
+        }
+        while (!last.compareAndSet(prev, next));
+        return ((next >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT) | node | (next & SEQUENCE_MASK);
+    }
+
+    /**
+     * @return the time in milliseconds at which the id was generated.
+     */
+    public static long timestampOf(long id) {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH;
+    }
+
+    /**
+     * @return the smallest id a generator can return at the given time in milliseconds.
+     */
+    public static long minIdAt(long timestamp) {
+        return Math.max(0, timestamp - EPOCH) << TIMESTAMP_SHIFT;
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.domain.id;
+
+import lombok.val;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.factory.spi.CustomIdGeneratorCreationContext;
+
+import java.lang.reflect.Member;
+
+/**
+ * Hibernate side of {@link SnowflakeId}. The {@link SnowflakeIdGenerator} is read from
+ * the {@link #GENERATOR_SETTING} setting of the persistence unit.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+public class SnowflakeIdentifierGenerator implements IdentifierGenerator {
+
+    public static final String GENERATOR_SETTING = "apzda.audit.snowflake-id-generator";
+
+    private final SnowflakeIdGenerator generator;
+
+    public SnowflakeIdentifierGenerator(SnowflakeId config, Member member, CustomIdGeneratorCreationContext context) {
+        val settings = context.getServiceRegistry().getService(ConfigurationService.class).getSettings();
+        if (!(settings.get(GENERATOR_SETTING) instanceof SnowflakeIdGenerator snowflakeIdGenerator)) {
+            throw new IllegalStateException(GENERATOR_SETTING + " is not set for " + member);
+        }
+        this.generator = snowflakeIdGenerator;
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object object) {
+        return generator.nextId();
+    }
+
+}
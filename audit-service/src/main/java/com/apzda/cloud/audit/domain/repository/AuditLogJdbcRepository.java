@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.domain.repository;
+
+import com.apzda.cloud.audit.domain.entity.AuditLog;
+import com.apzda.cloud.audit.domain.id.SnowflakeIdGenerator;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * Inserts audit logs with JDBC batch statements, bypassing the JPA persistence
+ * context.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Repository
+@RequiredArgsConstructor
+public class AuditLogJdbcRepository {
+
+    private static final String INSERT_SQL = "INSERT INTO apzda_audit_log (id, created_at, created_by, "
+            + "updated_at, updated_by, deleted, tenant_id, user_id, log_time, template, activity, runas, level, ip, device, "
+            + "message, args, old_value, new_value, value_patch, truncated, repeat_count, last_log_time) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final SnowflakeIdGenerator idGenerator;
+
+    /**
+     * Insert all the logs with one batch statement. Logs without id get one from the
+     * {@link SnowflakeIdGenerator} before the insert.
+     * @param logs the logs to insert.
+     */
+    public void saveAll(List<AuditLog> logs) {
+        if (logs.isEmpty()) {
+            return;
+        }
+        for (AuditLog log : logs) {
+            if (log.getId() == null) {
+                log.setId(idGenerator.nextId());
+            }
+        }
+        jdbcTemplate.execute((ConnectionCallback<Void>) (con) -> {
+            try (PreparedStatement ps = con.prepareStatement(INSERT_SQL)) {
+                for (AuditLog log : logs) {
+                    bind(ps, log);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Estimate the number of logs matching a condition from the row estimate of the
+     * query plan (MySQL {@code EXPLAIN}), without reading them.
+     * @param where the condition.
+     * @param params the parameters of the condition.
+     * @return the estimate, or -1 when the database gives none.
+     */
+    public long estimateCount(String where, List<Object> params) {
+        return jdbcTemplate.query("EXPLAIN SELECT id FROM apzda_audit_log WHERE " + where, (rs) -> {
+            if (!rs.next()) {
+                return -1L;
+            }
+            val columns = rs.getMetaData();
+            long rows = -1;
+            double filtered = 100;
+            for (int i = 1; i <= columns.getColumnCount(); i++) {
+                val column = columns.getColumnLabel(i);
+                if ("rows".equalsIgnoreCase(column)) {
+                    rows = rs.getLong(i);
+                }
+                else if ("filtered".equalsIgnoreCase(column)) {
+                    filtered = rs.getDouble(i);
+                }
+            }
+            return rows < 0 ? -1L : Math.round(rows * filtered / 100);
+        }, params.toArray());
+    }
+
+    private static void bind(PreparedStatement ps, AuditLog log) throws SQLException {
+        val now = System.currentTimeMillis();
+        var i = 0;
+        ps.setLong(++i, log.getId());
+        ps.setLong(++i, log.getCreatedAt() != null ? log.getCreatedAt() : now);
+        ps.setString(++i, log.getCreatedBy());
+        ps.setLong(++i, log.getUpdatedAt() != null ? log.getUpdatedAt() : now);
+        ps.setString(++i, log.getUpdatedBy());
+        ps.setBoolean(++i, log.isDeleted());
+        ps.setString(++i, log.getTenantId());
+        ps.setString(++i, log.getUserId());
+        ps.setLong(++i, log.getLogTime());
+        ps.setBoolean(++i, Boolean.TRUE.equals(log.getTemplate()));
+        ps.setString(++i, log.getActivity());
+        ps.setString(++i, log.getRunas());
+        ps.setString(++i, log.getLevel());
+        ps.setString(++i, log.getIp());
+        ps.setString(++i, log.getDevice());
+        setText(ps, ++i, log.getMessage());
+        setText(ps, ++i, log.getArgs());
+        setText(ps, ++i, log.getOldValue());
+        setText(ps, ++i, log.getNewValue());
+        setText(ps, ++i, log.getValuePatch());
+        ps.setBoolean(++i, Boolean.TRUE.equals(log.getTruncated()));
+        ps.setInt(++i, log.getRepeatCount() != null ? log.getRepeatCount() : 1);
+        if (log.getLastLogTime() != null) {
+            ps.setLong(++i, log.getLastLogTime());
+        }
+        else {
+            ps.setNull(++i, Types.BIGINT);
+        }
+    }
+
+    private static void setText(PreparedStatement ps, int index, String value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.LONGVARCHAR);
+        }
+        else {
+            ps.setString(index, value);
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.domain.repository;
+
+import com.apzda.cloud.audit.domain.entity.AuditLog;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+/**
+ * Queries that {@link org.springframework.data.jpa.repository.JpaSpecificationExecutor}
+ * cannot run without a count query.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+public interface AuditLogQueryRepository {
+
+    /**
+     * @return at most {@code limit} logs matching the specification in the given order,
+     * skipping the first {@code offset} ones.
+     */
+    List<AuditLog> findAll(Specification<AuditLog> spec, Sort sort, long offset, int limit);
+
+    /**
+     * @return the logs of {@link #findAll(Specification, Sort, long, int)} read without
+     * their large columns: old value, new value and value patch are {@code null}.
+     * The logs are not managed.
+     */
+    List<AuditLog> findSummaries(Specification<AuditLog> spec, Sort sort, long offset, int limit);
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.domain.repository;
+
+import com.apzda.cloud.audit.domain.entity.AuditLog;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Selection;
+import lombok.val;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+public class AuditLogQueryRepositoryImpl implements AuditLogQueryRepository {
+
+    /**
+     * The columns of a summary, all but the LONGTEXT values: the args are kept to render
+     * template messages.
+     */
+    private static final String[] SUMMARY_COLUMNS = { "id", "tenantId", "template", "userId", "logTime", "activity",
+            "runas", "level", "ip", "device", "message", "args", "truncated", "repeatCount", "lastLogTime" };
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<AuditLog> findAll(Specification<AuditLog> spec, Sort sort, long offset, int limit) {
+        val builder = entityManager.getCriteriaBuilder();
+        val query = builder.createQuery(AuditLog.class);
+        val root = query.from(AuditLog.class);
+        query.select(root);
+        return page(where(query, root, spec, sort), offset, limit).getResultList();
+    }
+
+    @Override
+    public List<AuditLog> findSummaries(Specification<AuditLog> spec, Sort sort, long offset, int limit) {
+        val builder = entityManager.getCriteriaBuilder();
+        val query = builder.createTupleQuery();
+        val root = query.from(AuditLog.class);
+        val selections = new ArrayList<Selection<?>>(SUMMARY_COLUMNS.length);
+        for (String column : SUMMARY_COLUMNS) {
+            selections.add(root.get(column).alias(column));
+        }
+        query.multiselect(selections);
+        return page(where(query, root, spec, sort), offset, limit).getResultList()
+            .stream()
+            .map(AuditLogQueryRepositoryImpl::toSummary)
+            .toList();
+    }
+
+    private <T> CriteriaQuery<T> where(CriteriaQuery<T> query, Root<AuditLog> root, Specification<AuditLog> spec,
+            Sort sort) {
+        val builder = entityManager.getCriteriaBuilder();
+        val predicate = spec.toPredicate(root, query, builder);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        return query.orderBy(QueryUtils.toOrders(sort, root, builder));
+    }
+
+    private <T> TypedQuery<T> page(CriteriaQuery<T> query, long offset, int limit) {
+        return entityManager.createQuery(query).setFirstResult(Math.toIntExact(offset)).setMaxResults(limit);
+    }
+
+    private static AuditLog toSummary(Tuple row) {
+        return AuditLog.builder()
+            .id(row.get("id", Long.class))
+            .tenantId(row.get("tenantId", String.class))
+            .template(row.get("template", Boolean.class))
+            .userId(row.get("userId", String.class))
+            .logTime(row.get("logTime", Long.class))
+            .activity(row.get("activity", String.class))
+            .runas(row.get("runas", String.class))
+            .level(row.get("level", String.class))
+            .ip(row.get("ip", String.class))
+            .device(row.get("device", String.class))
+            .message(row.get("message", String.class))
+            .args(row.get("args", String.class))
+            .truncated(row.get("truncated", Boolean.class))
+            .repeatCount(row.get("repeatCount", Integer.class))
+            .lastLogTime(row.get("lastLogTime", Long.class))
+            .build();
+    }
+
+}
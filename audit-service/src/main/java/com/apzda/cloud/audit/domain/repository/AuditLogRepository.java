@@ -29,6 +29,6 @@ import org.springframework.stereotype.Repository;
  **/
 @Repository
 public interface AuditLogRepository extends PagingAndSortingRepository<AuditLog, Long>,
-        JpaSpecificationExecutor<AuditLog>, CrudRepository<AuditLog, Long> {
+        JpaSpecificationExecutor<AuditLog>, CrudRepository<AuditLog, Long>, AuditLogQueryRepository {
 
 }
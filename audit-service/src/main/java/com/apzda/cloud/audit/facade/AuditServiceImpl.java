@@ -16,8 +16,13 @@
  */
 package com.apzda.cloud.audit.facade;
 
+import com.apzda.cloud.audit.config.AuditServerProperties;
+import com.apzda.cloud.audit.domain.repository.AuditLogJdbcRepository;
 import com.apzda.cloud.audit.domain.repository.AuditLogRepository;
+import com.apzda.cloud.audit.ingest.AckMode;
+import com.apzda.cloud.audit.ingest.AuditLogIngestor;
 import com.apzda.cloud.audit.proto.*;
+import com.apzda.cloud.audit.utils.JsonPatchUtils;
 import com.apzda.cloud.gsvc.context.CurrentUserProvider;
 import com.apzda.cloud.gsvc.domain.PagerUtils;
 import com.apzda.cloud.gsvc.ext.GsvcExt;
@@ -29,15 +34,26 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.support.PageableExecutionUtils;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -52,14 +68,120 @@ public class AuditServiceImpl implements AuditService {
     private static final TypeReference<List<Arg>> ARG_TYPE_HINT = new TypeReference<>() {
     };
 
+    private static final int DEFAULT_PAGE_SIZE = 20;
+
+    private static final Sort KEYSET_ORDER = Sort.by(Sort.Order.desc("logTime"), Sort.Order.desc("id"));
+
     private final ObjectMapper objectMapper;
 
     private final AuditLogRepository auditLogRepository;
 
+    private final AuditLogJdbcRepository auditLogJdbcRepository;
+
+    private final AuditLogIngestor auditLogIngestor;
+
+    private final AuditServerProperties properties;
+
     @Override
     public GsvcExt.CommonRes log(AuditLog request) {
         val builder = GsvcExt.CommonRes.newBuilder();
         builder.setErrCode(0);
+        if (auditLogIngestor.isEnabled()) {
+            // a group commit fails as a whole, so bad logs are kept out of the queue
+            val error = validate(request);
+            if (error != null) {
+                builder.setErrCode(400);
+                builder.setErrMsg(error);
+                return builder.build();
+            }
+            return ingest(toEntity(request), builder);
+        }
+        val entity = toEntity(request);
+        val mEntity = auditLogRepository.save(entity);
+        if (mEntity.getId() == null) {
+            builder.setErrCode(503);
+            builder.setErrMsg("Cannot save audit log");
+            log.error("Cannot save audit log: {}", entity);
+        }
+        return builder.build();
+    }
+
+    private GsvcExt.CommonRes ingest(com.apzda.cloud.audit.domain.entity.AuditLog entity,
+            GsvcExt.CommonRes.Builder builder) {
+        val future = auditLogIngestor.submit(entity);
+        try {
+            if (auditLogIngestor.getAck() == AckMode.ENQUEUE && !future.isCompletedExceptionally()) {
+                return builder.build();
+            }
+            future.get(auditLogIngestor.getCommitTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException e) {
+            // the failure is logged by the ingestor
+            builder.setErrCode(503);
+            builder.setErrMsg(e.getCause() instanceof RejectedExecutionException ? "Too many audit logs"
+                    : "Cannot save audit log");
+        }
+        catch (TimeoutException e) {
+            // still queued and usually committed later, resending it would duplicate it
+            builder.setErrCode(202);
+            builder.setErrMsg("Audit log is queued but not saved yet");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            builder.setErrCode(202);
+            builder.setErrMsg("Audit log is queued but not saved yet");
+        }
+        return builder.build();
+    }
+
+    @Override
+    @Transactional
+    public AuditLogBatchRes logBatch(AuditLogBatch request) {
+        val builder = AuditLogBatchRes.newBuilder();
+        builder.setErrCode(0);
+        val entities = new ArrayList<com.apzda.cloud.audit.domain.entity.AuditLog>(request.getLogCount());
+        val items = new ArrayList<BatchItemRes.Builder>(request.getLogCount());
+        var index = 0;
+        for (AuditLog auditLog : request.getLogList()) {
+            val item = BatchItemRes.newBuilder().setIndex(index++).setErrCode(0);
+            items.add(item);
+            val error = validate(auditLog);
+            if (error != null) {
+                item.setErrCode(400);
+                item.setErrMsg(error);
+                continue;
+            }
+            entities.add(toEntity(auditLog));
+        }
+        try {
+            auditLogJdbcRepository.saveAll(entities);
+            var i = 0;
+            for (BatchItemRes.Builder item : items) {
+                if (item.getErrCode() == 0) {
+                    val id = entities.get(i++).getId();
+                    if (id != null) {
+                        item.setId(id);
+                    }
+                }
+            }
+        }
+        catch (Exception e) {
+            log.error("Cannot save {} audit logs: {}", entities.size(), e.getMessage());
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            builder.setErrCode(503);
+            builder.setErrMsg("Cannot save audit logs");
+            for (BatchItemRes.Builder item : items) {
+                if (item.getErrCode() == 0) {
+                    item.setErrCode(503);
+                    item.setErrMsg("Cannot save audit log");
+                }
+            }
+        }
+        items.forEach(builder::addItem);
+        return builder.build();
+    }
+
+    private com.apzda.cloud.audit.domain.entity.AuditLog toEntity(AuditLog request) {
         val entity = new com.apzda.cloud.audit.domain.entity.AuditLog();
         entity.setTenantId(StringUtils.defaultIfBlank(request.getTenantId(), "0"));
         entity.setUserId(request.getUserid());
@@ -89,13 +211,28 @@ public class AuditServiceImpl implements AuditService {
         if (request.hasNewJsonValue()) {
             entity.setNewValue(request.getNewJsonValue());
         }
-        val mEntity = auditLogRepository.save(entity);
-        if (mEntity.getId() == null) {
-            builder.setErrCode(503);
-            builder.setErrMsg("Cannot save audit log");
-            log.error("Cannot save audit log: {}", entity);
+        if (request.hasValuePatch()) {
+            entity.setValuePatch(request.getValuePatch());
         }
-        return builder.build();
+        entity.setTruncated(request.getTruncated());
+        entity.setRepeatCount(Math.max(1, request.getRepeatCount()));
+        if (request.getRepeatCount() > 1) {
+            entity.setLastLogTime(request.getLastTimestamp());
+        }
+        return entity;
+    }
+
+    private static String validate(AuditLog request) {
+        if (request.getTimestamp() == 0) {
+            return "timestamp is required";
+        }
+        if (StringUtils.isBlank(request.getUserid())) {
+            return "userid is required";
+        }
+        if (StringUtils.isBlank(request.getActivity())) {
+            return "activity is required";
+        }
+        return null;
     }
 
     @Override
@@ -115,78 +252,271 @@ public class AuditServiceImpl implements AuditService {
         return query(Query.newBuilder(request).setUserId(id).build());
     }
 
+    @Override
+    @PreAuthorize("@authz.iCan('r:auditlog')")
+    @Transactional(readOnly = true)
+    public LogRes getLog(LogReq request) {
+        val builder = LogRes.newBuilder();
+        val entity = auditLogRepository.findById(request.getId()).filter((lg) -> !lg.isDeleted());
+        if (entity.isEmpty()) {
+            builder.setErrCode(404);
+            builder.setErrMsg("Audit log not found");
+            return builder.build();
+        }
+        builder.setErrCode(0);
+        builder.setLog(toAuditLog(entity.get(), request.getExpandPatch()));
+        return builder.build();
+    }
+
     private QueryRes query(Query request) {
+        val now = System.currentTimeMillis();
+        val endTime = request.hasEndTime() ? request.getEndTime() : now + TimeUnit.DAYS.toMillis(1);
+        val queryRange = properties.getQueryRange();
+        val startTime = request.hasStartTime() ? request.getStartTime()
+                : queryRange == null ? 0 : Math.max(0, Math.min(now, endTime) - queryRange.toMillis());
+        if (request.hasCursor()) {
+            return seek(request, startTime, endTime);
+        }
         val pager = request.getPager();
         val pr = PagerUtils.of(pager);
-        val logs = auditLogRepository
-            .findAll((Specification<com.apzda.cloud.audit.domain.entity.AuditLog>) (root, query, builder) -> {
-                val cons = new ArrayList<Predicate>();
-                cons.add(builder.equal(root.<Boolean>get("deleted"), false));
-                if (request.hasUserId()) {
-                    cons.add(builder.equal(root.<String>get("userId"), request.getUserId()));
-                }
-                if (request.hasRunas()) {
-                    cons.add(builder.equal(root.<String>get("runas"), request.getRunas()));
-                }
-                if (request.hasActivity()) {
-                    cons.add(builder.equal(root.<String>get("activity"), request.getActivity()));
-                }
-                if (request.hasTenantId()) {
-                    cons.add(builder.equal(root.<String>get("tenantId"), request.getTenantId()));
-                }
-                if (request.hasStartTime()) {
-                    cons.add(builder.ge(root.<Long>get("logTime"), request.getStartTime()));
-                }
-                if (request.hasEndTime()) {
-                    cons.add(builder.lt(root.<Long>get("logTime"), request.getEndTime()));
-                }
-                if (request.hasDevice()) {
-                    cons.add(builder.like(root.get("device"), "%" + request.getDevice() + "%"));
-                }
-                return builder.and(cons.toArray(new Predicate[0]));
-            }, pr);
+        if (request.getCountMode() != CountMode.EXACT && pr.isPaged()) {
+            return slice(request, pr, startTime, endTime);
+        }
+        val spec = specification(request, startTime, endTime);
+        val logs = request.getWithPayload() ? auditLogRepository.findAll(spec, pr) : summaries(spec, pr);
 
         val pageInfo = PagerUtils.of(logs);
         val builder = QueryRes.newBuilder();
         builder.setPager(pageInfo);
-        builder.addAllLog(logs.getContent().stream().map((lg) -> {
-            val args = lg.getArgs();
-            val newValue = lg.getNewValue();
-            val oldValue = lg.getOldValue();
-            val bd = AuditLog.newBuilder();
-            bd.setId(Objects.requireNonNull(lg.getId()));
-            bd.setTimestamp(lg.getLogTime());
-            bd.setUserid(lg.getUserId());
-            bd.setActivity(lg.getActivity());
-            bd.setMessage(lg.getMessage());
-            bd.setTenantId(lg.getTenantId());
-            bd.setIp(lg.getIp());
-            bd.setLevel(lg.getLevel());
-            bd.setTemplate(Boolean.TRUE.equals(lg.getTemplate()));
-            if (lg.getRunas() != null) {
-                bd.setRunas(lg.getRunas());
-            }
-            if (lg.getDevice() != null) {
-                bd.setDevice(lg.getDevice());
-            }
-            if (newValue != null) {
-                bd.setNewJsonValue(newValue);
-            }
-            if (oldValue != null) {
-                bd.setOldJsonValue(oldValue);
-            }
-            if (StringUtils.isNotBlank(args)) {
-                try {
-                    bd.addAllArg(objectMapper.readValue(args, ARG_TYPE_HINT));
-                }
-                catch (JsonProcessingException e) {
-                    log.warn("Cannot deserialize args: {} - {}", args, e.getMessage());
+        builder.setCountMode(CountMode.EXACT);
+        builder.addAllLog(logs.getContent().stream().map((lg) -> toAuditLog(lg, request.getExpandPatch())).toList());
+
+        return builder.build();
+    }
+
+    private Page<com.apzda.cloud.audit.domain.entity.AuditLog> summaries(
+            Specification<com.apzda.cloud.audit.domain.entity.AuditLog> spec, Pageable pr) {
+        val content = pr.isPaged()
+                ? auditLogRepository.findSummaries(spec, pr.getSort(), pr.getOffset(), pr.getPageSize())
+                : auditLogRepository.findSummaries(spec, pr.getSort(), 0, Integer.MAX_VALUE);
+        return PageableExecutionUtils.getPage(content, pr, () -> auditLogRepository.count(spec));
+    }
+
+    /**
+     * The page without a count query: one more log is read to know whether there is a
+     * next page. The total is then a lower bound, raised to the estimate of the query
+     * plan in the estimated mode; it is exact on the last page.
+     */
+    private QueryRes slice(Query request, Pageable pr, long startTime, long endTime) {
+        val size = pr.getPageSize();
+        val logs = fetch(request, specification(request, startTime, endTime), pr.getSort(), pr.getOffset(),
+                size + 1);
+        val hasNext = logs.size() > size;
+        val content = hasNext ? logs.subList(0, size) : logs;
+        var total = pr.getOffset() + content.size();
+        var countMode = CountMode.EXACT;
+        if (hasNext) {
+            total++;
+            countMode = CountMode.NONE;
+            if (request.getCountMode() == CountMode.ESTIMATED) {
+                val estimate = estimateCount(request, startTime, endTime);
+                if (estimate >= 0) {
+                    total = Math.max(total, estimate);
+                    countMode = CountMode.ESTIMATED;
                 }
             }
-            return bd.build();
-        }).toList());
+        }
+        val builder = QueryRes.newBuilder();
+        builder.setPager(PagerUtils.of(new PageImpl<>(content, pr, total)));
+        builder.setCountMode(countMode);
+        builder.setHasNext(hasNext);
+        builder.addAllLog(content.stream().map((lg) -> toAuditLog(lg, request.getExpandPatch())).toList());
+        return builder.build();
+    }
 
+    /**
+     * The condition of {@link #specification} in SQL, for the query plan estimate.
+     */
+    private long estimateCount(Query request, long startTime, long endTime) {
+        val where = new ArrayList<String>();
+        val params = new ArrayList<Object>();
+        where.add("deleted = false");
+        if (request.hasUserId()) {
+            where.add("user_id = ?");
+            params.add(request.getUserId());
+        }
+        if (request.hasRunas()) {
+            where.add("runas = ?");
+            params.add(request.getRunas());
+        }
+        if (request.hasActivity()) {
+            where.add("activity = ?");
+            params.add(request.getActivity());
+        }
+        if (request.hasTenantId()) {
+            where.add("tenant_id = ?");
+            params.add(request.getTenantId());
+        }
+        where.add("log_time >= ?");
+        params.add(startTime);
+        where.add("log_time < ?");
+        params.add(endTime);
+        if (request.hasDevice()) {
+            where.add("device LIKE ?");
+            params.add("%" + request.getDevice() + "%");
+        }
+        try {
+            return auditLogJdbcRepository.estimateCount(String.join(" AND ", where), params);
+        }
+        catch (Exception e) {
+            log.debug("Cannot estimate the number of audit logs: {}", e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Keyset paging: the next page is read with a seek predicate on
+     * {@code (log_time, id)} from the cursor, so its cost does not depend on how deep
+     * the page is, and one more log is read instead of counting them.
+     */
+    private QueryRes seek(Query request, long startTime, long endTime) {
+        val cursor = request.getCursor();
+        val size = request.getPager().getPageSize() > 0 ? request.getPager().getPageSize() : DEFAULT_PAGE_SIZE;
+        val end = cursor.getLogTime() > 0 ? Math.min(endTime, cursor.getLogTime() + 1) : endTime;
+        val spec = specification(request, startTime, end).and((root, query, builder) -> {
+            if (cursor.getLogTime() == 0) {
+                return null;
+            }
+            return builder.or(builder.lt(root.<Long>get("logTime"), cursor.getLogTime()),
+                    builder.and(builder.equal(root.<Long>get("logTime"), cursor.getLogTime()),
+                            builder.lt(root.<Long>get("id"), cursor.getId())));
+        });
+        val logs = fetch(request, spec, KEYSET_ORDER, 0, size + 1);
+        val hasNext = logs.size() > size;
+        val content = hasNext ? logs.subList(0, size) : logs;
+        val builder = QueryRes.newBuilder();
+        // not counted: the total only tells whether there is a next page
+        val total = content.size() + (hasNext ? 1 : 0);
+        builder.setPager(PagerUtils.of(new PageImpl<>(content, PageRequest.of(0, size, KEYSET_ORDER), total)));
+        builder.setCountMode(CountMode.NONE);
+        builder.setHasNext(hasNext);
+        builder.addAllLog(content.stream().map((lg) -> toAuditLog(lg, request.getExpandPatch())).toList());
+        if (hasNext) {
+            val last = content.get(size - 1);
+            builder.setNextCursor(Cursor.newBuilder().setLogTime(last.getLogTime()).setId(last.getId()));
+        }
         return builder.build();
     }
 
+    /**
+     * The logs of a page, without their values and value patch unless the query asks for
+     * them: these LONGTEXT columns are most of the bytes of a log.
+     */
+    private List<com.apzda.cloud.audit.domain.entity.AuditLog> fetch(Query request,
+            Specification<com.apzda.cloud.audit.domain.entity.AuditLog> spec, Sort sort, long offset, int limit) {
+        if (request.getWithPayload()) {
+            return auditLogRepository.findAll(spec, sort, offset, limit);
+        }
+        return auditLogRepository.findSummaries(spec, sort, offset, limit);
+    }
+
+    private static Specification<com.apzda.cloud.audit.domain.entity.AuditLog> specification(Query request,
+            long startTime, long endTime) {
+        return (root, query, builder) -> {
+            val cons = new ArrayList<Predicate>();
+            cons.add(builder.equal(root.<Boolean>get("deleted"), false));
+            if (request.hasUserId()) {
+                cons.add(builder.equal(root.<String>get("userId"), request.getUserId()));
+            }
+            if (request.hasRunas()) {
+                cons.add(builder.equal(root.<String>get("runas"), request.getRunas()));
+            }
+            if (request.hasActivity()) {
+                cons.add(builder.equal(root.<String>get("activity"), request.getActivity()));
+            }
+            if (request.hasTenantId()) {
+                cons.add(builder.equal(root.<String>get("tenantId"), request.getTenantId()));
+            }
+            // always bounded, so MySQL only reads the partitions of the range
+            cons.add(builder.ge(root.<Long>get("logTime"), startTime));
+            cons.add(builder.lt(root.<Long>get("logTime"), endTime));
+            if (request.hasDevice()) {
+                cons.add(builder.like(root.get("device"), "%" + request.getDevice() + "%"));
+            }
+            return builder.and(cons.toArray(new Predicate[0]));
+        };
+    }
+
+    private AuditLog toAuditLog(com.apzda.cloud.audit.domain.entity.AuditLog lg, boolean expandPatch) {
+        val args = lg.getArgs();
+        val newValue = lg.getNewValue();
+        val oldValue = lg.getOldValue();
+        val bd = AuditLog.newBuilder();
+        bd.setId(Objects.requireNonNull(lg.getId()));
+        bd.setTimestamp(lg.getLogTime());
+        bd.setUserid(lg.getUserId());
+        bd.setActivity(lg.getActivity());
+        bd.setMessage(lg.getMessage());
+        bd.setTenantId(lg.getTenantId());
+        bd.setIp(lg.getIp());
+        bd.setLevel(lg.getLevel());
+        bd.setTemplate(Boolean.TRUE.equals(lg.getTemplate()));
+        if (Boolean.TRUE.equals(lg.getTruncated())) {
+            bd.setTruncated(true);
+        }
+        if (lg.getRepeatCount() != null && lg.getRepeatCount() > 1) {
+            bd.setRepeatCount(lg.getRepeatCount());
+            if (lg.getLastLogTime() != null) {
+                bd.setLastTimestamp(lg.getLastLogTime());
+            }
+        }
+        if (lg.getRunas() != null) {
+            bd.setRunas(lg.getRunas());
+        }
+        if (lg.getDevice() != null) {
+            bd.setDevice(lg.getDevice());
+        }
+        if (newValue != null) {
+            bd.setNewJsonValue(newValue);
+        }
+        if (oldValue != null) {
+            bd.setOldJsonValue(oldValue);
+        }
+        if (lg.getValuePatch() != null) {
+            bd.setValuePatch(lg.getValuePatch());
+            if (expandPatch) {
+                expandPatch(bd);
+            }
+        }
+        if (StringUtils.isNotBlank(args)) {
+            try {
+                bd.addAllArg(objectMapper.readValue(args, ARG_TYPE_HINT));
+            }
+            catch (JsonProcessingException e) {
+                log.warn("Cannot deserialize args: {} - {}", args, e.getMessage());
+            }
+        }
+        return bd.build();
+    }
+
+    /**
+     * Rebuild the value that was not stored from the stored one and the value patch.
+     */
+    private void expandPatch(AuditLog.Builder builder) {
+        try {
+            val patch = objectMapper.readTree(builder.getValuePatch());
+            if (builder.hasOldJsonValue() && !builder.hasNewJsonValue()) {
+                val newValue = JsonPatchUtils.apply(objectMapper.readTree(builder.getOldJsonValue()), patch);
+                builder.setNewJsonValue(objectMapper.writeValueAsString(newValue));
+            }
+            else if (builder.hasNewJsonValue() && !builder.hasOldJsonValue()) {
+                val oldValue = JsonPatchUtils.apply(objectMapper.readTree(builder.getNewJsonValue()), patch);
+                builder.setOldJsonValue(objectMapper.writeValueAsString(oldValue));
+            }
+        }
+        catch (JsonProcessingException | IllegalArgumentException e) {
+            log.warn("Cannot expand value patch of audit log {} - {}", builder.getId(), e.getMessage());
+        }
+    }
+
 }
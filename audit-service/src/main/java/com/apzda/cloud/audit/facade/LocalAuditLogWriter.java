@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.facade;
+
+import com.apzda.cloud.audit.logging.LocalAuditSink;
+import com.apzda.cloud.audit.proto.AuditLog;
+import com.apzda.cloud.audit.proto.AuditLogBatch;
+import com.apzda.cloud.audit.proto.BatchItemRes;
+import jakarta.annotation.Nonnull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Writes the audit logs of the audit client running in the same application straight
+ * to {@link AuditServiceImpl}, in the batches built by the client.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class LocalAuditLogWriter implements LocalAuditSink {
+
+    private final AuditServiceImpl auditService;
+
+    @Nonnull
+    @Override
+    public String getName() {
+        return "local";
+    }
+
+    @Override
+    public void write(@Nonnull List<AuditLog> logs) {
+        val res = auditService.logBatch(AuditLogBatch.newBuilder().addAllLog(logs).build());
+        if (res.getErrCode() != 0) {
+            throw new IllegalStateException(res.getErrMsg());
+        }
+        for (BatchItemRes item : res.getItemList()) {
+            if (item.getErrCode() != 0 && item.getIndex() < logs.size()) {
+                log.warn("Cannot save audit log: {} - {}", logs.get(item.getIndex()), item.getErrMsg());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.ingest;
+
+import com.apzda.cloud.audit.config.AuditServerProperties;
+import com.apzda.cloud.audit.domain.entity.AuditLog;
+import com.apzda.cloud.audit.domain.repository.AuditLogJdbcRepository;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind stage of {@code AuditService.log}: the logs are queued in a bounded
+ * queue and writer threads insert them with one JDBC batch and one commit per group. A
+ * group is written when it reaches {@code batchSize} logs or when {@code linger} has
+ * elapsed since its first log, so under load hundreds of calls share one commit.
+ * <p>
+ * When a group cannot be written its logs are written again one by one, so a single
+ * bad log does not fail the others.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Slf4j
+public class AuditLogIngestor implements InitializingBean, DisposableBean {
+
+    private final AuditServerProperties.Ingest config;
+
+    private final AuditLogJdbcRepository auditLogJdbcRepository;
+
+    private final TransactionOperations transactionOperations;
+
+    private final BlockingQueue<Pending> queue;
+
+    private final int batchSize;
+
+    private final long lingerNanos;
+
+    private final List<Thread> writers = new ArrayList<>();
+
+    private volatile boolean running;
+
+    public AuditLogIngestor(AuditServerProperties.Ingest config, AuditLogJdbcRepository auditLogJdbcRepository,
+            TransactionOperations transactionOperations) {
+        this.config = config;
+        this.auditLogJdbcRepository = auditLogJdbcRepository;
+        this.transactionOperations = transactionOperations;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, config.getQueueCapacity()));
+        this.batchSize = Math.max(1, config.getBatchSize());
+        this.lingerNanos = Math.max(1, config.getLinger().toNanos());
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (!config.isEnabled()) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < Math.max(1, config.getThreads()); i++) {
+            val writer = new Thread(this::drain, "audit-ingestor-" + i);
+            writer.setDaemon(true);
+            writer.start();
+            writers.add(writer);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        val deadline = System.currentTimeMillis() + config.getShutdownTimeout().toMillis();
+        for (Thread writer : writers) {
+            val wait = deadline - System.currentTimeMillis();
+            if (wait > 0) {
+                writer.join(wait);
+            }
+        }
+        if (!queue.isEmpty()) {
+            log.warn("{} audit logs were not saved before shutdown", queue.size());
+        }
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    public AckMode getAck() {
+        return config.getAck();
+    }
+
+    public Duration getCommitTimeout() {
+        return config.getCommitTimeout();
+    }
+
+    /**
+     * Queue a log to be inserted by a writer thread.
+     * @param entity the log to insert.
+     * @return completed with the id of the log once it is committed, or with a
+     * {@link RejectedExecutionException} when the queue stays full for the enqueue
+     * timeout.
+     */
+    public CompletableFuture<Long> submit(AuditLog entity) {
+        val pending = new Pending(entity, new CompletableFuture<>());
+        try {
+            if (running && (queue.offer(pending)
+                    || queue.offer(pending, config.getEnqueueTimeout().toNanos(), TimeUnit.NANOSECONDS))) {
+                return pending.future;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return CompletableFuture.failedFuture(new RejectedExecutionException("Audit ingestion queue is full"));
+    }
+
+    public int getPending() {
+        return queue.size();
+    }
+
+    private void drain() {
+        val group = new ArrayList<Pending>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                val first = queue.poll(lingerNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                val deadline = System.nanoTime() + lingerNanos;
+                while (group.size() < batchSize) {
+                    if (queue.drainTo(group, batchSize - group.size()) > 0) {
+                        continue;
+                    }
+                    val wait = deadline - System.nanoTime();
+                    if (wait <= 0) {
+                        break;
+                    }
+                    val next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+                write(group);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            finally {
+                group.clear();
+            }
+        }
+    }
+
+    private void write(List<Pending> group) {
+        try {
+            commit(group);
+            return;
+        }
+        catch (Exception e) {
+            log.warn("Cannot save {} audit logs at once, saving them one by one: {}", group.size(),
+                    e.getMessage());
+        }
+        for (Pending pending : group) {
+            try {
+                commit(Collections.singletonList(pending));
+            }
+            catch (Exception e) {
+                log.error("Cannot save audit log: {} - {}", pending.entity, e.getMessage());
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void commit(List<Pending> group) {
+        val entities = new ArrayList<AuditLog>(group.size());
+        for (Pending pending : group) {
+            entities.add(pending.entity);
+        }
+        transactionOperations.executeWithoutResult((status) -> auditLogJdbcRepository.saveAll(entities));
+        for (Pending pending : group) {
+            pending.future.complete(pending.entity.getId());
+        }
+    }
+
+    private record Pending(AuditLog entity, CompletableFuture<Long> future) {
+    }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.partition;
+
+import com.apzda.cloud.audit.config.AuditServerProperties;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps {@code ahead} RANGE partitions on {@code log_time} ready after the current one,
+ * by splitting them from the {@code p_max} catch-all partition. New partitions continue
+ * from the highest existing bound, so no period is skipped and the first one may be
+ * shorter than a period. The catch-all only receives rows when the partitions are not
+ * created in time, only then does the split move rows.
+ * <p>
+ * Partitions are named after the day ({@code p20240131}) or month ({@code p202401})
+ * they start, in the time zone of the server. Nothing is scheduled when the database is
+ * not MySQL, or the table is not partitioned or has no {@code p_max} partition at
+ * startup.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Slf4j
+public class AuditLogPartitionManager implements SmartInitializingSingleton, DisposableBean {
+
+    public static final String TABLE = "apzda_audit_log";
+
+    public static final String MAX_PARTITION = "p_max";
+
+    private static final String PARTITIONS_SQL = "SELECT PARTITION_NAME, PARTITION_DESCRIPTION, TABLE_ROWS "
+            + "FROM information_schema.PARTITIONS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? "
+            + "AND PARTITION_NAME IS NOT NULL ORDER BY PARTITION_ORDINAL_POSITION";
+
+    private final AuditServerProperties.Partition config;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    private ScheduledExecutorService scheduler;
+
+    public AuditLogPartitionManager(AuditServerProperties.Partition config, JdbcTemplate jdbcTemplate) {
+        this.config = config;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        // after the singletons, so the migrations have run
+        if (!config.isEnabled() || !isManageable()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            val thread = new Thread(runnable, "audit-partition");
+            thread.setDaemon(true);
+            return thread;
+        });
+        val interval = Math.max(1, config.getCheckInterval().toMillis());
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                maintain();
+            }
+            catch (Exception e) {
+                log.error("Cannot create the partitions of {}: {}", TABLE, e.getMessage());
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Checked once at startup, so an unsupported database is reported once instead of
+     * failing on every check.
+     */
+    private boolean isManageable() {
+        try {
+            val product = jdbcTemplate
+                .execute((ConnectionCallback<String>) (con) -> con.getMetaData().getDatabaseProductName());
+            if (!"MySQL".equalsIgnoreCase(product) && !"MariaDB".equalsIgnoreCase(product)) {
+                log.warn("Partitions of {} are not managed on {}", TABLE, product);
+                return false;
+            }
+            val partitions = partitions();
+            if (partitions.isEmpty()) {
+                log.warn("{} is not partitioned, its partitions are not managed", TABLE);
+                return false;
+            }
+            if (partitions.stream().noneMatch((partition) -> MAX_PARTITION.equals(partition.name()))) {
+                log.warn("{} has no {} partition, its partitions are not managed", TABLE, MAX_PARTITION);
+                return false;
+            }
+            return true;
+        }
+        catch (Exception e) {
+            log.warn("Cannot read the partitions of {}, they are not managed: {}", TABLE, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return the partitions of the table in order, empty if it is not partitioned.
+     */
+    public List<RangePartition> partitions() {
+        return jdbcTemplate.query(PARTITIONS_SQL, (rs, i) -> {
+            val description = rs.getString(2);
+            val lessThan = description == null || "MAXVALUE".equalsIgnoreCase(description) ? null
+                    : Long.valueOf(description);
+            return new RangePartition(rs.getString(1), lessThan, rs.getLong(3));
+        }, TABLE);
+    }
+
+    /**
+     * Create the missing partitions from the highest existing bound up to {@code ahead}
+     * periods after the current one.
+     * @return the names of the created partitions.
+     */
+    public synchronized List<String> maintain() {
+        val partitions = partitions();
+        if (partitions.isEmpty()) {
+            return List.of();
+        }
+        if (partitions.stream().noneMatch((partition) -> MAX_PARTITION.equals(partition.name()))) {
+            log.warn("{} has no {} partition, its partitions are not managed", TABLE, MAX_PARTITION);
+            return List.of();
+        }
+        long bound = Long.MIN_VALUE;
+        for (RangePartition partition : partitions) {
+            if (partition.lessThan() != null) {
+                bound = Math.max(bound, partition.lessThan());
+            }
+        }
+        val period = config.getPeriod();
+        val current = period.start(LocalDate.now(zone));
+        val last = period.plus(current, Math.max(0, config.getAhead()) + 1);
+        var from = bound == Long.MIN_VALUE ? current : Instant.ofEpochMilli(bound).atZone(zone).toLocalDate();
+        val names = new ArrayList<String>();
+        val definitions = new ArrayList<String>();
+        for (var to = period.plus(period.start(from), 1); !to.isAfter(last); from = to, to = period.plus(to, 1)) {
+            val name = period.name(from);
+            names.add(name);
+            definitions.add("PARTITION " + name + " VALUES LESS THAN (" + toMillis(to) + ")");
+        }
+        if (definitions.isEmpty()) {
+            return List.of();
+        }
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " REORGANIZE PARTITION " + MAX_PARTITION + " INTO ("
+                + String.join(", ", definitions) + ", PARTITION " + MAX_PARTITION + " VALUES LESS THAN MAXVALUE)");
+        log.info("Partitions {} of {} are created", names, TABLE);
+        return names;
+    }
+
+    /**
+     * Drop a partition and all its rows.
+     * @param name the name of the partition, it cannot be {@code p_max}.
+     */
+    public synchronized void drop(String name) {
+        if (MAX_PARTITION.equals(name) || !name.matches("p\\w+")) {
+            throw new IllegalArgumentException("Cannot drop partition: " + name);
+        }
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP PARTITION " + name);
+        log.info("Partition {} of {} is dropped", name, TABLE);
+    }
+
+    private long toMillis(LocalDate date) {
+        return date.atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    /**
+     * @param lessThan the exclusive upper bound of {@code log_time}, {@code null} for
+     * {@code MAXVALUE}.
+     * @param rows the estimated number of rows.
+     */
+    public record RangePartition(String name, Long lessThan, long rows) {
+    }
+
+    public enum Period {
+
+        DAY(ChronoUnit.DAYS, "yyyyMMdd"), MONTH(ChronoUnit.MONTHS, "yyyyMM");
+
+        private final ChronoUnit unit;
+
+        private final DateTimeFormatter formatter;
+
+        Period(ChronoUnit unit, String pattern) {
+            this.unit = unit;
+            this.formatter = DateTimeFormatter.ofPattern(pattern);
+        }
+
+        LocalDate start(LocalDate date) {
+            return unit == ChronoUnit.MONTHS ? date.withDayOfMonth(1) : date;
+        }
+
+        LocalDate plus(LocalDate date, long periods) {
+            return date.plus(periods, unit);
+        }
+
+        String name(LocalDate start) {
+            return "p" + formatter.format(start);
+        }
+
+    }
+
+}
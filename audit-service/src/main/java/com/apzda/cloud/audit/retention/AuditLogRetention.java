@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.audit.retention;
+
+import com.apzda.cloud.audit.config.AuditServerProperties;
+import com.apzda.cloud.audit.partition.AuditLogPartitionManager;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Purges the audit logs older than their retention. The retention of a log is the one
+ * of the first rule matching its tenant and activity, or the default one.
+ * <p>
+ * Partitions whose upper bound is older than the longest retention only hold expired
+ * logs and are dropped. The other expired logs are deleted by primary key, at most
+ * {@code chunkSize} rows per statement with a pause between statements, so that locks
+ * are held briefly and replicas do not lag; one run deletes at most
+ * {@code maxRowsPerRun} rows.
+ * <p>
+ * Meters, named {@code apzda.audit.server.retention.*}: {@code purged} (rows by rule and
+ * by mode, {@code partition} or {@code delete}; the rows of a dropped partition are
+ * estimated), {@code progress} (rows purged by the current or last run),
+ * {@code last.success} (epoch seconds of the last successful run) and {@code duration}.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+@Slf4j
+public class AuditLogRetention implements SmartInitializingSingleton, DisposableBean {
+
+    public static final String PREFIX = "apzda.audit.server.retention.";
+
+    private static final String TABLE = AuditLogPartitionManager.TABLE;
+
+    private final AuditServerProperties.Retention config;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final AuditLogPartitionManager partitionManager;
+
+    private final MeterRegistry registry;
+
+    private final AtomicLong progress = new AtomicLong();
+
+    private final AtomicLong lastSuccess = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    private ScheduledExecutorService scheduler;
+
+    public AuditLogRetention(AuditServerProperties.Retention config, JdbcTemplate jdbcTemplate,
+            AuditLogPartitionManager partitionManager, MeterRegistry registry) {
+        this.config = config;
+        this.jdbcTemplate = jdbcTemplate;
+        this.partitionManager = partitionManager;
+        this.registry = registry;
+        Gauge.builder(PREFIX + "progress", progress, AtomicLong::get)
+            .description("Audit logs purged by the current or last retention run")
+            .register(registry);
+        Gauge.builder(PREFIX + "last.success", lastSuccess, AtomicLong::get)
+            .description("Time of the last successful retention run")
+            .baseUnit("seconds")
+            .register(registry);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!config.isEnabled()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            val thread = new Thread(runnable, "audit-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        val interval = Math.max(1, config.getInterval().toMillis());
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                purge();
+            }
+            catch (Exception e) {
+                log.error("Cannot purge the expired audit logs: {}", e.getMessage());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Purge the expired audit logs.
+     * @return the number of purged rows, estimated for the dropped partitions.
+     */
+    public synchronized long purge() {
+        val now = System.currentTimeMillis();
+        val sample = Timer.start(registry);
+        var outcome = "failure";
+        progress.set(0);
+        try {
+            val rules = rules();
+            var purged = dropPartitions(rules, now);
+            purged += deleteExpired(rules, now);
+            outcome = "success";
+            lastSuccess.set(TimeUnit.MILLISECONDS.toSeconds(now));
+            if (purged > 0) {
+                log.info("{} expired audit logs are purged", purged);
+            }
+            return purged;
+        }
+        finally {
+            sample.stop(Timer.builder(PREFIX + "duration")
+                .description("Time of a retention run")
+                .tag("outcome", outcome)
+                .register(registry));
+        }
+    }
+
+    private long dropPartitions(List<Rule> rules, long now) {
+        Duration longest = Duration.ZERO;
+        for (Rule rule : rules) {
+            if (rule.keep() == null) {
+                // some logs are kept forever
+                return 0;
+            }
+            longest = longest.compareTo(rule.keep()) < 0 ? rule.keep() : longest;
+        }
+        val cutoff = now - longest.toMillis();
+        long purged = 0;
+        for (AuditLogPartitionManager.RangePartition partition : partitionManager.partitions()) {
+            if (!running || partition.lessThan() == null || partition.lessThan() > cutoff) {
+                continue;
+            }
+            partitionManager.drop(partition.name());
+            purged += partition.rows();
+            progress.addAndGet(partition.rows());
+            purged("*", "partition").increment(partition.rows());
+        }
+        return purged;
+    }
+
+    private long deleteExpired(List<Rule> rules, long now) {
+        long purged = 0;
+        val earlier = new ArrayList<Rule>();
+        for (Rule rule : rules) {
+            if (rule.keep() != null && running && purged < config.getMaxRowsPerRun()) {
+                purged += delete(rule, earlier, now - rule.keep().toMillis(), config.getMaxRowsPerRun() - purged);
+            }
+            if (rule.sql().isEmpty()) {
+                // the rules after it never apply
+                break;
+            }
+            earlier.add(rule);
+        }
+        return purged;
+    }
+
+    private long delete(Rule rule, List<Rule> earlier, long cutoff, long budget) {
+        val where = new StringBuilder("log_time < ?");
+        val params = new ArrayList<Object>();
+        params.add(cutoff);
+        if (!rule.sql().isEmpty()) {
+            where.append(" AND ").append(rule.sql());
+            params.addAll(rule.params());
+        }
+        // logs matching an earlier rule follow that rule
+        for (Rule other : earlier) {
+            where.append(" AND NOT (").append(other.sql()).append(")");
+            params.addAll(other.params());
+        }
+        val select = "SELECT id FROM " + TABLE + " WHERE " + where + " LIMIT ?";
+        val chunkSize = Math.max(1, config.getChunkSize());
+        val pause = config.getPause().toMillis();
+        long deleted = 0;
+        while (running && deleted < budget) {
+            val limit = (int) Math.min(chunkSize, budget - deleted);
+            val args = new ArrayList<>(params);
+            args.add(limit);
+            val ids = jdbcTemplate.queryForList(select, Long.class, args.toArray());
+            if (ids.isEmpty()) {
+                break;
+            }
+            val delete = "DELETE FROM " + TABLE + " WHERE log_time < ? AND id IN ("
+                    + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")";
+            val deleteArgs = new ArrayList<Object>(ids.size() + 1);
+            deleteArgs.add(cutoff);
+            deleteArgs.addAll(ids);
+            val count = jdbcTemplate.update(delete, deleteArgs.toArray());
+            deleted += count;
+            progress.addAndGet(count);
+            purged(rule.name(), "delete").increment(count);
+            if (ids.size() < limit) {
+                break;
+            }
+            if (pause > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(pause);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private Counter purged(String rule, String mode) {
+        return Counter.builder(PREFIX + "purged")
+            .description("Purged audit logs")
+            .tag("rule", rule)
+            .tag("mode", mode)
+            .register(registry);
+    }
+
+    /**
+     * The configured rules followed by the default one.
+     */
+    private List<Rule> rules() {
+        val rules = new ArrayList<Rule>();
+        for (AuditServerProperties.RetentionRule rule : config.getRules()) {
+            val sql = new ArrayList<String>();
+            val params = new ArrayList<Object>();
+            match("tenant_id", rule.getTenant(), sql, params);
+            match("activity", rule.getActivity(), sql, params);
+            rules.add(new Rule(rule.getTenant() + "/" + rule.getActivity(), String.join(" AND ", sql), params,
+                    rule.getKeep()));
+        }
+        rules.add(new Rule("default", "", List.of(), config.getKeep()));
+        return rules;
+    }
+
+    private static void match(String column, String pattern, List<String> sql, List<Object> params) {
+        if (pattern == null || pattern.isBlank() || "*".equals(pattern)) {
+            return;
+        }
+        if (pattern.contains("*")) {
+            sql.add(column + " LIKE ?");
+            params.add(pattern.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_").replace('*', '%'));
+        }
+        else {
+            sql.add(column + " = ?");
+            params.add(pattern);
+        }
+    }
+
+    /**
+     * @param sql the condition matching the logs of the rule, empty if it matches all
+     * the logs.
+     * @param keep {@code null} to keep the logs forever.
+     */
+    private record Rule(String name, String sql, List<Object> params, Duration keep) {
+    }
+
+}
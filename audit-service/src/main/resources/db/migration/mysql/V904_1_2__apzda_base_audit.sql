@@ -0,0 +1,2 @@
+alter table apzda_audit_log
+    add value_patch LONGTEXT null default null comment 'json patch between old and new value' after new_value;
@@ -0,0 +1,2 @@
+alter table apzda_audit_log
+    add truncated BIT not null default false comment 'the old or new value is truncated' after value_patch;
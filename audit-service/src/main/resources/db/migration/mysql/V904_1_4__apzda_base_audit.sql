@@ -0,0 +1,3 @@
+alter table apzda_audit_log
+    add repeat_count  INT UNSIGNED    not null default 1 comment 'number of identical events merged in this record' after truncated,
+    add last_log_time BIGINT UNSIGNED null default null comment 'timestamp of the last merged event' after repeat_count;
@@ -0,0 +1,20 @@
+-- the partitioning column must be part of every unique key, ids are generated by the
+-- servers now so AUTO_INCREMENT is dropped too
+alter table apzda_audit_log
+    modify id BIGINT UNSIGNED NOT NULL,
+    drop primary key,
+    add primary key (id, log_time);
+
+-- p_history holds every existing log: it ends at the start of tomorrow, or after the
+-- latest log_time. The following partitions are split from p_max by
+-- AuditLogPartitionManager, starting from this bound
+set @p_history_bound = greatest(unix_timestamp(curdate() + interval 1 day) * 1000,
+                                (select coalesce(max(log_time), 0) + 1 from apzda_audit_log));
+
+set @partition_sql = concat('alter table apzda_audit_log partition by range (log_time) (',
+                            'partition p_history values less than (', @p_history_bound, '), ',
+                            'partition p_max values less than maxvalue)');
+
+prepare partition_stmt from @partition_sql;
+execute partition_stmt;
+deallocate prepare partition_stmt;
@@ -0,0 +1,70 @@
+package com.apzda.cloud.audit.domain.id;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.5
+ * @since 1.0.5
+ **/
+class SnowflakeIdGeneratorTest {
+
+    @Test
+    void ids_should_increase_and_carry_their_time() {
+        // given
+        val generator = new SnowflakeIdGenerator(7);
+        val start = System.currentTimeMillis();
+        // when
+        val ids = new ArrayList<Long>();
+        for (int i = 0; i < 10_000; i++) {
+            ids.add(generator.nextId());
+        }
+        // then
+        assertThat(ids).isSorted().doesNotHaveDuplicates();
+        assertThat(SnowflakeIdGenerator.timestampOf(ids.get(0))).isGreaterThanOrEqualTo(start);
+        assertThat(ids.get(0)).isGreaterThanOrEqualTo(SnowflakeIdGenerator.minIdAt(start));
+        assertThat(ids.get(0) >> SnowflakeIdGenerator.SEQUENCE_BITS & SnowflakeIdGenerator.MAX_NODE_ID)
+            .isEqualTo(7);
+    }
+
+    @Test
+    void ids_should_be_unique_across_threads_and_nodes() throws Exception {
+        // given
+        val generators = List.of(new SnowflakeIdGenerator(1), new SnowflakeIdGenerator(2));
+        val ids = ConcurrentHashMap.<Long>newKeySet();
+        val executor = Executors.newFixedThreadPool(4);
+        // when
+        val futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < 4; t++) {
+            val generator = generators.get(t % 2);
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    ids.add(generator.nextId());
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        // then
+        assertThat(ids).hasSize(80_000);
+    }
+
+    @Test
+    void node_id_should_be_checked() {
+        assertThatThrownBy(() -> new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE_ID + 1))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
@@ -1,23 +1,37 @@
 package com.apzda.cloud.audit.facade;
 
 import com.apzda.cloud.audit.TestConfig;
+import com.apzda.cloud.audit.config.AuditServerProperties;
 import com.apzda.cloud.audit.logging.AuditLogger;
+import com.apzda.cloud.audit.logging.AuditSink;
+import com.apzda.cloud.audit.logging.AuditSinks;
+import com.apzda.cloud.audit.partition.AuditLogPartitionManager;
 import com.apzda.cloud.audit.proto.Arg;
 import com.apzda.cloud.audit.proto.AuditLog;
+import com.apzda.cloud.audit.proto.AuditLogBatch;
 import com.apzda.cloud.audit.proto.AuditService;
+import com.apzda.cloud.audit.proto.CountMode;
+import com.apzda.cloud.audit.proto.LogReq;
+import com.apzda.cloud.audit.proto.Cursor;
 import com.apzda.cloud.audit.proto.Query;
+import com.apzda.cloud.audit.retention.AuditLogRetention;
 import com.apzda.cloud.gsvc.ext.GsvcExt;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.val;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.annotation.Rollback;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.ContextConfiguration;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -40,6 +54,15 @@ class AuditServiceImplTest {
     @Autowired
     private AuditLogger logger;
 
+    @Autowired
+    private AuditSinks auditSinks;
+
+    @Autowired
+    private AuditLogPartitionManager partitionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     @Test
     @Rollback
     void log() {
@@ -56,6 +79,202 @@ class AuditServiceImplTest {
         assertThat(rest.getErrCode()).isEqualTo(0);
     }
 
+    @Test
+    void invalid_log_should_not_be_queued() {
+        // given
+        val log = AuditLog.newBuilder().setTimestamp(System.currentTimeMillis()).setUserid("1").build();
+        // when
+        val rest = auditService.log(log);
+        // then
+        assertThat(rest.getErrCode()).isEqualTo(400);
+        assertThat(rest.getErrMsg()).isEqualTo("activity is required");
+    }
+
+    @Test
+    void partitions_should_be_created_ahead() {
+        // when
+        partitionManager.maintain();
+        val partitions = partitionManager.partitions();
+        // then
+        val ahead = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(7);
+        assertThat(partitions).last().extracting(AuditLogPartitionManager.RangePartition::name).isEqualTo("p_max");
+        assertThat(partitions).filteredOn((partition) -> partition.lessThan() != null)
+            .anyMatch((partition) -> partition.lessThan() > ahead);
+        assertThat(partitionManager.maintain()).isEmpty();
+    }
+
+    @Test
+    void retention_should_follow_the_first_matching_rule() {
+        // given
+        val old = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(10);
+        val batch = AuditLogBatch.newBuilder();
+        for (String activity : new String[] { "retention-keep", "retention-drop", "retention-drop" }) {
+            batch.addLog(AuditLog.newBuilder().setTimestamp(old).setUserid("3").setActivity(activity));
+        }
+        batch.addLog(AuditLog.newBuilder()
+            .setTimestamp(System.currentTimeMillis())
+            .setUserid("3")
+            .setActivity("retention-drop"));
+        auditService.logBatch(batch.build());
+        val config = new AuditServerProperties.Retention();
+        config.getRules().add(rule("retention-keep", Duration.ofDays(30)));
+        config.getRules().add(rule("retention-*", Duration.ofDays(1)));
+        config.setChunkSize(1);
+        config.setPause(Duration.ZERO);
+        val registry = new SimpleMeterRegistry();
+        val retention = new AuditLogRetention(config, jdbcTemplate, partitionManager, registry);
+        // when
+        val purged = retention.purge();
+        // then
+        assertThat(purged).isEqualTo(2);
+        assertThat(jdbcTemplate.queryForList("SELECT activity FROM apzda_audit_log WHERE user_id = '3'",
+                String.class))
+            .containsExactlyInAnyOrder("retention-keep", "retention-drop");
+        assertThat(registry.get(AuditLogRetention.PREFIX + "purged").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void local_sink_should_replace_remote_sink() {
+        // then
+        assertThat(auditSinks.getSinks()).extracting(AuditSink::getName).contains("local").doesNotContain("remote");
+    }
+
+    @Test
+    @Rollback
+    void logBatch() {
+        // given
+        val batch = AuditLogBatch.newBuilder();
+        for (int i = 0; i < 3; i++) {
+            batch.addLog(AuditLog.newBuilder()
+                .setTimestamp(System.currentTimeMillis())
+                .setUserid("1")
+                .setActivity("batch")
+                .setIp("127.0.0.1")
+                .setMessage("hello " + i));
+        }
+        batch.addLog(AuditLog.newBuilder().setTimestamp(System.currentTimeMillis()).setUserid("1"));
+        // when
+        val rest = auditService.logBatch(batch.build());
+        // then
+        assertThat(rest.getErrCode()).isEqualTo(0);
+        assertThat(rest.getItemCount()).isEqualTo(4);
+        assertThat(rest.getItem(0).getErrCode()).isEqualTo(0);
+        assertThat(rest.getItem(0).hasId()).isTrue();
+        assertThat(rest.getItem(2).getErrCode()).isEqualTo(0);
+        assertThat(rest.getItem(3).getErrCode()).isEqualTo(400);
+        assertThat(rest.getItem(3).getErrMsg()).isEqualTo("activity is required");
+    }
+
+    @Test
+    @WithMockUser(username = "admin", authorities = { "r:auditlog" })
+    void coalesced_log_should_keep_repeat_count() {
+        // given
+        val now = System.currentTimeMillis();
+        val log = AuditLog.newBuilder()
+            .setTimestamp(now)
+            .setUserid("2")
+            .setActivity("coalesced")
+            .setMessage("login failed")
+            .setRepeatCount(5)
+            .setLastTimestamp(now + 1000)
+            .build();
+        // when
+        val res = auditService.log(log);
+        val logs = auditService.logs(Query.newBuilder().setActivity("coalesced").build());
+        // then
+        assertThat(res.getErrCode()).isEqualTo(0);
+        assertThat(logs.getLogCount()).isEqualTo(1);
+        assertThat(logs.getLog(0).getRepeatCount()).isEqualTo(5);
+        assertThat(logs.getLog(0).getLastTimestamp()).isEqualTo(now + 1000);
+    }
+
+    @Test
+    @WithMockUser(username = "admin", authorities = { "r:auditlog" })
+    void keyset_pages_should_not_overlap() {
+        // given
+        val now = System.currentTimeMillis();
+        val batch = AuditLogBatch.newBuilder();
+        for (int i = 0; i < 5; i++) {
+            // two logs share each timestamp, the id breaks the tie
+            batch.addLog(AuditLog.newBuilder().setTimestamp(now + i / 2).setUserid("4").setActivity("keyset"));
+        }
+        auditService.logBatch(batch.build());
+        val query = Query.newBuilder()
+            .setActivity("keyset")
+            .setPager(GsvcExt.Pager.newBuilder().setPageSize(2))
+            .setCursor(Cursor.getDefaultInstance());
+        val ids = new ArrayList<Long>();
+        // when
+        var pages = 0;
+        while (true) {
+            val res = auditService.logs(query.build());
+            pages++;
+            assertThat(res.getCountMode()).isEqualTo(CountMode.NONE);
+            assertThat(res.getHasNext()).isEqualTo(res.hasNextCursor());
+            assertThat(res.hasPager()).isTrue();
+            res.getLogList().forEach((log) -> ids.add(log.getId()));
+            if (!res.hasNextCursor()) {
+                break;
+            }
+            query.setCursor(res.getNextCursor());
+        }
+        // then
+        assertThat(pages).isEqualTo(3);
+        assertThat(ids).hasSize(5).doesNotHaveDuplicates().isSortedAccordingTo(Comparator.reverseOrder());
+    }
+
+    @Test
+    @WithMockUser(username = "admin", authorities = { "r:auditlog" })
+    void uncounted_pages_should_tell_if_there_is_a_next_page() {
+        // given
+        val batch = AuditLogBatch.newBuilder();
+        val now = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            batch.addLog(AuditLog.newBuilder().setTimestamp(now).setUserid("5").setActivity("slice"));
+        }
+        auditService.logBatch(batch.build());
+        val query = Query.newBuilder().setActivity("slice").setCountMode(CountMode.NONE);
+        // when
+        val first = auditService.logs(query.setPager(GsvcExt.Pager.newBuilder().setPageSize(2)).build());
+        val last = auditService
+            .logs(query.setPager(GsvcExt.Pager.newBuilder().setPageNumber(1).setPageSize(2)).build());
+        // then
+        assertThat(first.getLogCount()).isEqualTo(2);
+        assertThat(first.getHasNext()).isTrue();
+        assertThat(first.getCountMode()).isEqualTo(CountMode.NONE);
+        assertThat(last.getLogCount()).isEqualTo(1);
+        assertThat(last.getHasNext()).isFalse();
+        assertThat(last.getCountMode()).isEqualTo(CountMode.EXACT);
+    }
+
+    @Test
+    @WithMockUser(username = "admin", authorities = { "r:auditlog" })
+    void payloads_should_only_be_read_on_demand() {
+        // given
+        val log = AuditLog.newBuilder()
+            .setTimestamp(System.currentTimeMillis())
+            .setUserid("6")
+            .setActivity("payload")
+            .addArg(Arg.newBuilder().setIndex(0).setValue("1"))
+            .setOldJsonValue("{\"status\":\"NEW\"}")
+            .setNewJsonValue("{\"status\":\"PAID\"}")
+            .build();
+        auditService.logBatch(AuditLogBatch.newBuilder().addLog(log).build());
+        // when
+        val summary = auditService.logs(Query.newBuilder().setActivity("payload").build()).getLog(0);
+        val full = auditService.getLog(LogReq.newBuilder().setId(summary.getId()).build());
+        // then
+        assertThat(summary.getUserid()).isEqualTo("6");
+        assertThat(summary.getArgCount()).isEqualTo(1);
+        assertThat(summary.hasOldJsonValue()).isFalse();
+        assertThat(summary.hasNewJsonValue()).isFalse();
+        assertThat(full.getErrCode()).isEqualTo(0);
+        assertThat(full.getLog().getArgCount()).isEqualTo(1);
+        assertThat(full.getLog().getOldJsonValue()).isEqualTo("{\"status\":\"NEW\"}");
+        assertThat(full.getLog().getNewJsonValue()).isEqualTo("{\"status\":\"PAID\"}");
+        assertThat(auditService.getLog(LogReq.newBuilder().setId(-1).build()).getErrCode()).isEqualTo(404);
+    }
+
     @Test
     @WithMockUser(username = "admin", authorities = { "r:auditlog" })
     void logs() throws InterruptedException {
@@ -70,6 +289,7 @@ class AuditServiceImplTest {
                         .setDirection(GsvcExt.Sorter.Direction.DESC))
                     .build())
                 .build())
+            .setWithPayload(true)
             .build();
 
         logger.activity("test")
@@ -91,4 +311,11 @@ class AuditServiceImplTest {
         assertThat(log.getDevice()).isEqualTo("test");
     }
 
+    private static AuditServerProperties.RetentionRule rule(String activity, Duration keep) {
+        val rule = new AuditServerProperties.RetentionRule();
+        rule.setActivity(activity);
+        rule.setKeep(keep);
+        return rule;
+    }
+
 }